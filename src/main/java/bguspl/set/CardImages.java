@@ -0,0 +1,187 @@
+package bguspl.set;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntConsumer;
+
+/**
+ * This class loads the card images in the background.
+ * The images are decoded in parallel, scaled to the cell size and converted to images compatible with the screen
+ * (so drawing them is a plain copy), and cached. Until a card's image is loaded a placeholder is returned, so the
+ * game can start drawing right away. A card whose image file cannot be loaded is drawn from its features instead.
+ * If the deck has no image files (or config.proceduralCards is set) nothing is loaded: the cards are drawn from
+ * their features when they are first shown, and the config.cardCacheSize most recently shown images are kept.
+ */
+class CardImages {
+
+    private final Config config;
+    private final Util util;
+    private final EventLog events;
+
+    /**
+     * The configuration of the screen the images are drawn on.
+     */
+    private final GraphicsConfiguration screen;
+
+    /**
+     * The loaded images by card id (null while loading, or if the cards are drawn).
+     */
+    private final AtomicReferenceArray<Image> images;
+
+    /**
+     * The drawer of the cards and the least recently used cache of the drawn images (null if the cards are loaded,
+     * only accessed by the thread that draws the table).
+     */
+    private final CardRenderer renderer;
+    private final Map<Integer, Image> drawn;
+
+    private final Image emptyCard;
+    private final Image placeholder;
+
+    /**
+     * @param config   - the game configuration.
+     * @param util     - the game utilities (to draw the cards from their features).
+     * @param events   - the event log (for the images that cannot be loaded).
+     * @param onLoaded - called (on a loader thread) with the id of every card whose image was loaded.
+     */
+    CardImages(Config config, Util util, EventLog events, IntConsumer onLoaded) {
+        this.config = config;
+        this.util = util;
+        this.events = events;
+        screen = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration();
+        emptyCard = load("cards/empty_card.png");
+        placeholder = createPlaceholder();
+
+        if (config.proceduralCards || !hasImageFiles()) {
+            images = null;
+            renderer = new CardRenderer(config, util, screen);
+            drawn = new LinkedHashMap<Integer, Image>(config.cardCacheSize * 4 / 3 + 1, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, Image> eldest) {
+                    return size() > config.cardCacheSize;
+                }
+            };
+            return;
+        }
+        images = new AtomicReferenceArray<>(config.deckSize);
+        renderer = null;
+        drawn = null;
+
+        AtomicInteger count = new AtomicInteger(0);
+        ExecutorService loaders = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors()), r -> {
+            Thread thread = new Thread(r, "card-loader-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < config.deckSize; ++i) {
+            int card = i;
+            loaders.execute(() -> {
+                images.set(card, loadOrDraw(card));
+                onLoaded.accept(card);
+            });
+        }
+        loaders.shutdown(); // the loaders finish the queued cards and exit
+    }
+
+    /**
+     * @return - the image of a card, or a placeholder if it was not loaded yet.
+     */
+    Image get(int card) {
+        if (renderer != null)
+            return drawn.computeIfAbsent(card, renderer::render);
+        Image image = images.get(card);
+        return image != null ? image : placeholder;
+    }
+
+    /**
+     * @return - the image of an empty cell.
+     */
+    Image empty() {
+        return emptyCard;
+    }
+
+    /**
+     * @return - the name of a card's image file: the card's features in base config.featureSize, padded with zeros
+     *           to config.featureCount digits.
+     */
+    String fileName(int card) {
+        char[] digits = new char[config.featureCount];
+        for (int i = digits.length - 1; i >= 0; --i) {
+            digits[i] = Character.forDigit(card % config.featureSize, config.featureSize);
+            card /= config.featureSize;
+        }
+        return new String(digits);
+    }
+
+    /**
+     * @return - true iff there is an image file for every card (file names have one digit per feature).
+     */
+    private boolean hasImageFiles() {
+        if (config.featureSize > 10)
+            return false; // the digits would not be decimal, there are no such files
+        ClassLoader loader = getClass().getClassLoader();
+        return loader.getResource("cards/" + fileName(0) + ".png") != null
+                && loader.getResource("cards/" + fileName(config.deckSize - 1) + ".png") != null;
+    }
+
+    /**
+     * Loads the image of a card, or draws the card from its features if its image file cannot be loaded (so the card
+     * does not show the placeholder for the whole game).
+     */
+    private Image loadOrDraw(int card) {
+        String filename = "cards/" + fileName(card) + ".png";
+        try {
+            return load(filename);
+        } catch (RuntimeException e) {
+            events.message("warning: cannot load " + filename + ", the card is drawn instead: " + e.getMessage());
+            return new CardRenderer(config, util, screen).render(card);
+        }
+    }
+
+    /**
+     * Loads an image resource and converts it to a screen compatible image of the cell size.
+     */
+    private Image load(String filename) {
+        URL imageResource = getClass().getClassLoader().getResource(filename);
+        if (imageResource == null)
+            throw new RuntimeException(new FileNotFoundException(filename));
+        BufferedImage source;
+        try {
+            source = ImageIO.read(imageResource);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        if (source == null)
+            throw new RuntimeException(new IOException("cannot decode " + filename));
+        BufferedImage image = screen.createCompatibleImage(config.cellWidth, config.cellHeight,
+                source.getColorModel().hasAlpha() ? Transparency.TRANSLUCENT : Transparency.OPAQUE);
+        Graphics2D g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(source, 0, 0, config.cellWidth, config.cellHeight, null);
+        g.dispose();
+        return image;
+    }
+
+    private Image createPlaceholder() {
+        BufferedImage image = screen.createCompatibleImage(config.cellWidth, config.cellHeight, Transparency.OPAQUE);
+        Graphics2D g = image.createGraphics();
+        g.drawImage(emptyCard, 0, 0, null);
+        g.setColor(Color.LIGHT_GRAY);
+        g.setFont(new Font("Serif", Font.ITALIC, Math.max(8, config.fontSize / 2)));
+        FontMetrics metrics = g.getFontMetrics();
+        String text = "loading...";
+        g.drawString(text, (config.cellWidth - metrics.stringWidth(text)) / 2, (config.cellHeight + metrics.getAscent()) / 2);
+        g.dispose();
+        return image;
+    }
+}
@@ -0,0 +1,156 @@
+package bguspl.set;
+
+import java.awt.*;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+
+/**
+ * This class draws a card from its features, for decks that have no image files.
+ * feature 0 - the number of symbols, feature 1 - the color of the symbols, feature 2 - the shape of the symbols,
+ * feature 3 - the shading of the symbols, feature 4 - the background tint of the card, feature 5 - the outline
+ * width of the symbols. The features of every card are also printed in its corner, so any number of features can
+ * be told apart.
+ */
+class CardRenderer {
+
+    private static final int MARGIN = 6;
+    private static final int ARC = 18;
+
+    private final Config config;
+    private final Util util;
+
+    /**
+     * The configuration of the screen the images are drawn on.
+     */
+    private final GraphicsConfiguration screen;
+
+    /**
+     * The symbol colors and the background tints, one per feature value.
+     */
+    private final Color[] colors;
+    private final Color[] tints;
+
+    CardRenderer(Config config, Util util, GraphicsConfiguration screen) {
+        this.config = config;
+        this.util = util;
+        this.screen = screen;
+        colors = new Color[config.featureSize];
+        tints = new Color[config.featureSize];
+        for (int i = 0; i < config.featureSize; i++) {
+            float hue = (float) i / config.featureSize;
+            colors[i] = Color.getHSBColor(hue, 0.85f, 0.75f);
+            tints[i] = i == 0 ? Color.WHITE : Color.getHSBColor(hue + 0.5f / config.featureSize, 0.12f, 1f);
+        }
+    }
+
+    /**
+     * Draws the image of a card.
+     * @param card - the card id.
+     * @return     - a screen compatible image of the cell size.
+     */
+    Image render(int card) {
+        int[] features = util.cardToFeatures(card);
+        int width = config.cellWidth;
+        int height = config.cellHeight;
+        BufferedImage image = screen.createCompatibleImage(width, height, Transparency.TRANSLUCENT);
+        Graphics2D g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+
+        // the card
+        g.setColor(tints[feature(features, 4, 0)]);
+        g.fillRoundRect(1, 1, width - 3, height - 3, ARC, ARC);
+        g.setColor(Color.DARK_GRAY);
+        g.drawRoundRect(1, 1, width - 3, height - 3, ARC, ARC);
+
+        // the symbols, side by side in the middle of the card
+        int count = feature(features, 0, 0) + 1;
+        double slot = (double) (width - 2 * MARGIN) / config.featureSize;
+        double symbolWidth = slot * 0.7;
+        double symbolHeight = Math.min(height * 0.6, symbolWidth * 2.2);
+        double left = (width - slot * count) / 2 + (slot - symbolWidth) / 2;
+        double top = (height - symbolHeight) / 2;
+        Color color = colors[feature(features, 1, 0)];
+        g.setStroke(new BasicStroke(1.5f + feature(features, 5, 0)));
+        for (int i = 0; i < count; i++) {
+            Shape symbol = symbol(feature(features, 2, 0), left + i * slot, top, symbolWidth, symbolHeight);
+            shade(g, symbol, feature(features, 3, 2), color);
+            g.setColor(color);
+            g.draw(symbol);
+        }
+
+        // the features in the corner
+        g.setColor(Color.GRAY);
+        g.setFont(new Font("SansSerif", Font.PLAIN, Math.max(8, height / 12)));
+        StringBuilder text = new StringBuilder(features.length);
+        for (int feature : features)
+            text.append(Character.forDigit(feature, Character.MAX_RADIX));
+        g.drawString(text.toString(), MARGIN + 2, height - MARGIN - 2);
+
+        g.dispose();
+        return image;
+    }
+
+    /**
+     * @return - the value of a feature, or a default value if the cards do not have it.
+     */
+    private int feature(int[] features, int index, int missing) {
+        return index < features.length ? features[index] : Math.min(missing, config.featureSize - 1);
+    }
+
+    private static Shape symbol(int shape, double x, double y, double width, double height) {
+        switch (shape % 5) {
+            case 0: // oval
+                return new Ellipse2D.Double(x, y, width, height);
+            case 1: { // diamond
+                Path2D.Double diamond = new Path2D.Double();
+                diamond.moveTo(x + width / 2, y);
+                diamond.lineTo(x + width, y + height / 2);
+                diamond.lineTo(x + width / 2, y + height);
+                diamond.lineTo(x, y + height / 2);
+                diamond.closePath();
+                return diamond;
+            }
+            case 2: { // squiggle
+                Path2D.Double squiggle = new Path2D.Double();
+                squiggle.moveTo(x + width * 0.2, y);
+                squiggle.curveTo(x + width * 1.1, y, x + width * 0.5, y + height * 0.5, x + width, y + height);
+                squiggle.curveTo(x - width * 0.1, y + height, x + width * 0.5, y + height * 0.5, x + width * 0.2, y);
+                squiggle.closePath();
+                return squiggle;
+            }
+            case 3: // rectangle
+                return new Rectangle2D.Double(x, y + height * 0.1, width, height * 0.8);
+            default: { // triangle
+                Path2D.Double triangle = new Path2D.Double();
+                triangle.moveTo(x + width / 2, y);
+                triangle.lineTo(x + width, y + height);
+                triangle.lineTo(x, y + height);
+                triangle.closePath();
+                return triangle;
+            }
+        }
+    }
+
+    /**
+     * Fills a symbol: 0 - empty, 1 - striped, 2 - solid, 3 and up - translucent fills of decreasing strength.
+     */
+    private static void shade(Graphics2D g, Shape symbol, int shading, Color color) {
+        if (shading == 0)
+            return;
+        if (shading == 1) {
+            Shape clip = g.getClip();
+            g.clip(symbol);
+            g.setColor(color);
+            Rectangle bounds = symbol.getBounds();
+            for (int y = bounds.y; y < bounds.y + bounds.height; y += 4)
+                g.drawLine(bounds.x, y, bounds.x + bounds.width, y);
+            g.setClip(clip);
+            return;
+        }
+        int alpha = shading == 2 ? 255 : Math.max(40, 200 - 40 * (shading - 3));
+        g.setColor(new Color(color.getRed(), color.getGreen(), color.getBlue(), alpha));
+        g.fill(symbol);
+    }
+}
@@ -21,6 +21,21 @@ public class Config {
     public final long randomSpinMin;
     public final long randomSpinMax;
 
+    /**
+     * Whether the user interface and key press events are logged by a background writer
+     */
+    public final boolean asyncLogging;
+
+    /**
+     * The directory of the binary event journal of the game (empty - no journal)
+     */
+    public final String journalDirectory;
+
+    /**
+     * The size (in bytes) of a segment file of the event journal
+     */
+    public final long journalSegmentBytes;
+
     /**
      * The number of features on the cards (e.g. shape, color etc.)
      */
@@ -47,10 +62,36 @@ public class Config {
     public final int computerPlayers;
 
     /**
-     * The total number of players (human + computer) in the game
+     * The number of computer players that look for sets on the table (the rest press random slots)
+     */
+    public final int smartComputerPlayers;
+
+    /**
+     * The mean and standard deviation (in milliseconds) of the reaction time of a set finding computer player
+     */
+    public final long aiReactionMillis;
+    public final long aiReactionJitterMillis;
+
+    /**
+     * The number of external players (input is provided from outside the game, e.g. by the load generator)
+     */
+    public final int externalPlayers;
+
+    /**
+     * The total number of players (human + computer + external) in the game
      */
     public final int players;
 
+    /**
+     * How the player and computer player loops are executed (platform or virtual threads)
+     */
+    public final ExecutionMode executionMode;
+
+    /**
+     * The number of scheduler threads shared by all the players in the actor execution mode
+     */
+    public final int actorThreads;
+
     /**
      * Whether to print out hints to the console or not
      */
@@ -76,6 +117,12 @@ public class Config {
      */
     public final long pointFreezeMillis;
 
+    /**
+     * The number of key presses a player may make while its set is checked by the dealer. They are replayed if the
+     * set turns out not to be legal, and discarded if the player scores a point (0 drops the presses as usual)
+     */
+    public final int pendingPresses;
+
     /**
      * The number of milliseconds to delay before removing/placing a card on the table
      */
@@ -86,6 +133,67 @@ public class Config {
      */
     public final long endGamePauseMillies;
 
+    /**
+     * Whether to run a headless load test: the external players are driven by the load generator
+     */
+    public final boolean loadTest;
+
+    /**
+     * The number of milliseconds the load test runs (split evenly between the load press rates)
+     */
+    public final long loadTestMillis;
+
+    /**
+     * The key press rates (per external player per second) offered one after the other during the load test
+     */
+    public final double[] loadPressRates;
+
+    /**
+     * The fraction of load test key press bursts that complete a legal set on the table
+     */
+    public final double loadValidClaimRatio;
+
+    /**
+     * The number of key presses in a load test burst
+     */
+    public final int loadBurstSize;
+
+    /**
+     * The seed of the load generator random source
+     */
+    public final long loadSeed;
+
+    /**
+     * The loopback port of the player server, through which clients play the external players (0 - no server)
+     */
+    public final int serverPort;
+
+    /**
+     * The maximum number of clients connected to the player server at the same time
+     */
+    public final int serverMaxClients;
+
+    /**
+     * The loopback port of the spectator server, which streams the game to spectators (0 - no server)
+     */
+    public final int spectatorPort;
+
+    /**
+     * The time (in milliseconds) between two keyframes (full states) of the spectator stream
+     */
+    public final long spectatorKeyframeMillis;
+
+    /**
+     * The maximum number of spectators connected to the spectator server at the same time
+     */
+    public final int spectatorMaxViewers;
+
+    /**
+     * The file through which bots in other processes play the external players (empty - no shared memory channel,
+     * also when the player server is enabled: the external players are played by the server's clients)
+     */
+    public final String sharedMemoryFile;
+
     /**
      * The names of the players to display on the screen
      * Note: if there are more players than names, the remaining players will be called "Player 3", "Player 4", etc.
@@ -107,6 +215,16 @@ public class Config {
      */
     public final int tableSize;
 
+    /**
+     * The number of slots the dealer fills at the start of a round (the rest of the grid is kept for extensions)
+     */
+    public final int dealSize;
+
+    /**
+     * Whether the dealer extends the table by one more group of cards when there is no legal set on it
+     */
+    public final boolean tableExtension;
+
     /**
      * The width (in pixels) of each cell
      */
@@ -132,6 +250,28 @@ public class Config {
      */
     public final int fontSize;
 
+    /**
+     * The number of times per second the changes of the game are applied to the screen
+     */
+    public final int frameRate;
+
+    /**
+     * Whether the table is drawn by a render loop at most config.frameRate times per second, instead of repainted
+     * when it changes
+     */
+    public final boolean activeRendering;
+
+    /**
+     * Whether the cards are drawn from their features instead of loaded from the image files (the cards are always
+     * drawn if there are no image files for the deck)
+     */
+    public final boolean proceduralCards;
+
+    /**
+     * The number of drawn card images kept in memory
+     */
+    public final int cardCacheSize;
+
     /**
      * The scancodes of the keyboard input data for each player
      * Notes:
@@ -186,6 +326,12 @@ public class Config {
         Level logLevel = Level.parse(properties.getProperty("LogLevel", "ALL"));
         String logFormat = properties.getProperty("LogFormat", "[%1$tT.%1$tL] [%2$-7s] %3$s%n");
         Main.setLoggerLevelAndFormat(logger, logLevel, logFormat);
+        long logFileBytes = (long) (Double.parseDouble(properties.getProperty("LogFileSizeMegabytes", "0")) * 1024 * 1024);
+        int logFiles = Integer.parseInt(properties.getProperty("LogFiles", "0"));
+        Main.setLogRotation(logger, logFileBytes, logFiles);
+        asyncLogging = Boolean.parseBoolean(properties.getProperty("AsyncLogging", "False"));
+        journalDirectory = properties.getProperty("JournalDirectory", "").trim();
+        journalSegmentBytes = (long) (Double.parseDouble(properties.getProperty("JournalSegmentMegabytes", "64")) * 1024 * 1024);
 
         // for debugging
         randomSpinMin = Long.parseLong(properties.getProperty("RandomSpinMin", "0"));
@@ -201,16 +347,62 @@ public class Config {
         // gameplay settings
         humanPlayers = Integer.parseInt(properties.getProperty("HumanPlayers", "2"));
         computerPlayers = Integer.parseInt(properties.getProperty("ComputerPlayers", "0"));
-        players = humanPlayers + computerPlayers;
+        externalPlayers = Integer.parseInt(properties.getProperty("ExternalPlayers", "0"));
+        players = humanPlayers + computerPlayers + externalPlayers;
+        smartComputerPlayers = Math.min(Integer.parseInt(properties.getProperty("SmartComputerPlayers", "0")), computerPlayers);
+        aiReactionMillis = (long) (Double.parseDouble(properties.getProperty("AiReactionSeconds", "1")) * 1000.0);
+        aiReactionJitterMillis = (long) (Double.parseDouble(properties.getProperty("AiReactionJitterSeconds", "0.3")) * 1000.0);
+
+        ExecutionMode mode;
+        String modeName = properties.getProperty("ExecutionMode", "Platform");
+        try {
+            mode = ExecutionMode.valueOf(modeName.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            logger.severe("invalid execution mode: " + modeName + " using platform threads.");
+            mode = ExecutionMode.PLATFORM;
+        }
+        if (!mode.isSupported()) {
+            logger.severe("warning: " + modeName + " threads are not supported by this JVM, using platform threads.");
+            mode = ExecutionMode.PLATFORM;
+        }
+        executionMode = mode;
+        actorThreads = Integer.parseInt(properties.getProperty("ActorThreads", Integer.toString(Runtime.getRuntime().availableProcessors())));
 
         hints = Boolean.parseBoolean(properties.getProperty("Hints", "False"));
         turnTimeoutMillis = (long) (Double.parseDouble(properties.getProperty("TurnTimeoutSeconds", "60")) * 1000.0);
         turnTimeoutWarningMillis = (long) (Double.parseDouble(properties.getProperty("TurnTimeoutWarningSeconds", "60")) * 1000.0);
         pointFreezeMillis = (long) (Double.parseDouble(properties.getProperty("PointFreezeSeconds", "1")) * 1000.0);
         penaltyFreezeMillis = (long) (Double.parseDouble(properties.getProperty("PenaltyFreezeSeconds", "3")) * 1000.0);
+        pendingPresses = Math.max(0, Integer.parseInt(properties.getProperty("PendingPresses", "0")));
         tableDelayMillis = (long) (Double.parseDouble(properties.getProperty("TableDelaySeconds", "0.1")) * 1000.0);
         endGamePauseMillies = (long) (Double.parseDouble(properties.getProperty("EndGamePauseSeconds", "5")) * 1000.0);
 
+        // load test settings
+        loadTest = Boolean.parseBoolean(properties.getProperty("LoadTest", "False"));
+        loadTestMillis = (long) (Double.parseDouble(properties.getProperty("LoadTestSeconds", "30")) * 1000.0);
+        loadPressRates = Arrays.stream(properties.getProperty("LoadPressRates", "10").split(","))
+                .mapToDouble(rate -> Double.parseDouble(rate.trim())).toArray();
+        loadValidClaimRatio = Double.parseDouble(properties.getProperty("LoadValidClaimRatio", "0.5"));
+        loadBurstSize = Math.max(1, Integer.parseInt(properties.getProperty("LoadBurstSize", "1")));
+        loadSeed = Long.parseLong(properties.getProperty("LoadSeed", "1"));
+        if (loadTest && externalPlayers == 0)
+            logger.severe("warning: load test without external players, no load will be offered");
+
+        // network settings
+        serverPort = Integer.parseInt(properties.getProperty("ServerPort", "0"));
+        serverMaxClients = Math.max(1, Integer.parseInt(properties.getProperty("ServerMaxClients", "1024")));
+        spectatorPort = Integer.parseInt(properties.getProperty("SpectatorPort", "0"));
+        spectatorKeyframeMillis = (long) (Double.parseDouble(properties.getProperty("SpectatorKeyframeSeconds", "2")) * 1000.0);
+        spectatorMaxViewers = Math.max(1, Integer.parseInt(properties.getProperty("SpectatorMaxViewers", "1024")));
+        String sharedMemory = properties.getProperty("SharedMemoryFile", "").trim();
+        if (!sharedMemory.isEmpty() && serverPort > 0) {
+            // both would drive the same external players, and their presses would interleave
+            logger.severe("warning: the external players are played by the player server, the shared memory channel "
+                    + sharedMemory + " is disabled");
+            sharedMemory = "";
+        }
+        sharedMemoryFile = sharedMemory;
+
         // ui settings
         String[] names = properties.getProperty("PlayerNames", "Player 1, Player 2").split(",");
         playerNames = new String[players];
@@ -219,11 +411,19 @@ public class Config {
         rows = Integer.parseInt(properties.getProperty("Rows", "3"));
         columns = Integer.parseInt(properties.getProperty("Columns", "4"));
         tableSize = rows * columns;
+        dealSize = Math.min(Integer.parseInt(properties.getProperty("DealSize", Integer.toString(tableSize))), tableSize);
+        if (dealSize < featureSize)
+            logger.severe("invalid deal size: " + dealSize + " is smaller than the feature size " + featureSize);
+        tableExtension = Boolean.parseBoolean(properties.getProperty("TableExtension", "False"));
         cellWidth = Integer.parseInt(properties.getProperty("CellWidth", "258"));
         cellHeight = Integer.parseInt(properties.getProperty("CellHeight", "167"));
         playerCellWidth = Integer.parseInt(properties.getProperty("PlayerCellWidth", "300"));
         playerCellHeight = Integer.parseInt(properties.getProperty("PlayerCellHeight", "40"));
         fontSize = Integer.parseInt(properties.getProperty("FontSize", "40"));
+        frameRate = Math.max(1, Integer.parseInt(properties.getProperty("FrameRate", "60")));
+        activeRendering = Boolean.parseBoolean(properties.getProperty("ActiveRendering", "False"));
+        proceduralCards = Boolean.parseBoolean(properties.getProperty("ProceduralCards", "False"));
+        cardCacheSize = Math.max(tableSize, Integer.parseInt(properties.getProperty("CardCacheSize", "64")));
 
         // keyboard input data
         playerKeys = new int[players][rows * columns];
@@ -8,11 +8,13 @@ public class Env {
     public final Config config;
     public final UserInterface ui;
     public final Util util;
+    public final EventBus bus;
 
-    public Env(Logger logger, Config config, UserInterface ui, Util util) {
+    public Env(Logger logger, Config config, UserInterface ui, Util util, EventBus bus) {
         this.logger = logger;
         this.config = config;
         this.ui = ui;
         this.util = util;
+        this.bus = bus;
     }
 }
@@ -0,0 +1,269 @@
+package bguspl.set;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * A publish/subscribe bus of game events.
+ * Every subscriber has a bounded buffer of its own and a thread of its own that delivers the events from the buffer
+ * to it in order, so publishing never waits for a subscriber: when a buffer is full the subscriber's backpressure
+ * policy decides what is lost. Publishers first check wants(type), so no event is created when no subscriber takes
+ * events of its type. The delivery threads are stopped by a flag and a wake-up marker in their buffers, never by an
+ * interrupt, so a subscriber doing interruptible I/O (e.g. mapping a journal segment) is not broken mid-event.
+ */
+public class EventBus {
+
+    /**
+     * The marker offered to a buffer to wake its delivery thread when the subscription is cancelled or the bus closed
+     * (compared by identity, never delivered).
+     */
+    private static final GameEvent WAKE_UP = new GameEvent(GameEvent.Type.WINNER, 0, GameEvent.NONE, GameEvent.NONE,
+            GameEvent.NONE, 0, null, null);
+
+    /**
+     * What happens when the buffer of a subscriber is full.
+     * DROP_NEWEST - the new event is dropped.
+     * DROP_OLDEST - the oldest event in the buffer is dropped to make room for the new one.
+     * CANCEL      - the subscription is cancelled (for subscribers that cannot miss events).
+     */
+    public enum Backpressure {
+        DROP_NEWEST,
+        DROP_OLDEST,
+        CANCEL
+    }
+
+    /**
+     * A receiver of events (called on the subscription's thread).
+     */
+    public interface Subscriber {
+        void onEvent(GameEvent event);
+    }
+
+    /**
+     * A subscription to the bus.
+     */
+    public final class Subscription implements Runnable {
+
+        private final String name;
+        private final EnumSet<GameEvent.Type> types;
+        private final Backpressure backpressure;
+        private final Subscriber subscriber;
+        private final ArrayBlockingQueue<GameEvent> buffer;
+        private final Thread thread;
+        private volatile boolean cancelled;
+
+        /**
+         * The number of events delivered and dropped.
+         */
+        private final AtomicLong delivered = new AtomicLong(0);
+        private final AtomicLong dropped = new AtomicLong(0);
+
+        private Subscription(String name, EnumSet<GameEvent.Type> types, int capacity, Backpressure backpressure,
+                             Subscriber subscriber) {
+            this.name = name;
+            this.types = EnumSet.copyOf(types);
+            this.backpressure = backpressure;
+            this.subscriber = subscriber;
+            buffer = new ArrayBlockingQueue<>(capacity);
+            thread = executionMode.newThread(this, "bus-" + name);
+            thread.setDaemon(true);
+        }
+
+        /**
+         * Offers an event to the buffer, never waits.
+         */
+        private void offer(GameEvent event) {
+            if (cancelled || !types.contains(event.type))
+                return;
+            if (buffer.offer(event))
+                return;
+            switch (backpressure) {
+                case DROP_NEWEST:
+                    dropped.incrementAndGet();
+                    break;
+                case DROP_OLDEST:
+                    while (!buffer.offer(event))
+                        if (buffer.poll() != null)
+                            dropped.incrementAndGet();
+                    break;
+                case CANCEL:
+                    dropped.incrementAndGet();
+                    logger.severe("warning: event bus subscriber " + name + " fell behind and was cancelled");
+                    cancel();
+                    break;
+            }
+        }
+
+        /**
+         * The delivery loop.
+         */
+        @Override
+        public void run() {
+            while (!cancelled) {
+                GameEvent event;
+                try {
+                    event = buffer.take();
+                } catch (InterruptedException e) {
+                    continue;
+                }
+                deliver(event);
+            }
+            if (closed) { // deliver the events published before the bus was closed
+                GameEvent event;
+                while ((event = buffer.poll()) != null)
+                    deliver(event);
+            }
+        }
+
+        private void deliver(GameEvent event) {
+            if (event == WAKE_UP)
+                return;
+            try {
+                subscriber.onEvent(event);
+                delivered.incrementAndGet();
+            } catch (RuntimeException e) {
+                logger.severe("event bus subscriber " + name + " failed on " + event + ": " + e);
+            }
+        }
+
+        /**
+         * Stops the delivery of events to the subscriber (the events in the buffer are discarded).
+         */
+        public void cancel() {
+            if (cancelled)
+                return;
+            cancelled = true;
+            unsubscribe(this);
+            wakeUp();
+        }
+
+        /**
+         * Wakes the delivery thread if it waits for an event (if the buffer is full, it is not waiting).
+         */
+        private void wakeUp() {
+            buffer.offer(WAKE_UP);
+        }
+
+        /**
+         * @return - the number of events delivered to the subscriber.
+         */
+        public long delivered() {
+            return delivered.get();
+        }
+
+        /**
+         * @return - the number of events the subscriber lost because its buffer was full.
+         */
+        public long dropped() {
+            return dropped.get();
+        }
+    }
+
+    private final Logger logger;
+
+    /**
+     * The mode of the delivery threads.
+     */
+    private final ExecutionMode executionMode;
+
+    /**
+     * The subscriptions (copied on every change, so publishing takes no lock) and the union of their event types
+     * (bit t is set iff a subscriber takes events of the type with ordinal t).
+     */
+    private volatile Subscription[] subscriptions = new Subscription[0];
+    private volatile int wanted;
+
+    private volatile boolean closed;
+
+    /**
+     * @param logger        - the game logger.
+     * @param executionMode - the mode of the delivery threads.
+     */
+    public EventBus(Logger logger, ExecutionMode executionMode) {
+        this.logger = logger;
+        this.executionMode = executionMode;
+    }
+
+    /**
+     * Subscribes to events.
+     * @param name         - the name of the subscriber (for the thread name and the log).
+     * @param types        - the types of the events to deliver.
+     * @param capacity     - the size of the subscriber's buffer.
+     * @param backpressure - what happens when the buffer is full.
+     * @param subscriber   - the receiver of the events.
+     * @return - the subscription.
+     */
+    public Subscription subscribe(String name, EnumSet<GameEvent.Type> types, int capacity, Backpressure backpressure,
+                                  Subscriber subscriber) {
+        Subscription subscription = new Subscription(name, types, capacity, backpressure, subscriber);
+        synchronized (this) {
+            if (closed)
+                throw new IllegalStateException("the event bus is closed");
+            Subscription[] current = subscriptions;
+            Subscription[] added = Arrays.copyOf(current, current.length + 1);
+            added[current.length] = subscription;
+            subscriptions = added;
+            updateWanted();
+        }
+        subscription.thread.start();
+        return subscription;
+    }
+
+    private synchronized void unsubscribe(Subscription subscription) {
+        subscriptions = Arrays.stream(subscriptions).filter(s -> s != subscription).toArray(Subscription[]::new);
+        updateWanted();
+    }
+
+    private void updateWanted() {
+        int types = 0;
+        for (Subscription subscription : subscriptions)
+            for (GameEvent.Type type : subscription.types)
+                types |= 1 << type.ordinal();
+        wanted = types;
+    }
+
+    /**
+     * @return - true iff a subscriber takes events of the type (publishers may skip creating the event otherwise).
+     */
+    public boolean wants(GameEvent.Type type) {
+        return (wanted & (1 << type.ordinal())) != 0;
+    }
+
+    /**
+     * Publishes an event to the subscribers, never waits.
+     */
+    public void publish(GameEvent event) {
+        for (Subscription subscription : subscriptions)
+            subscription.offer(event);
+    }
+
+    /**
+     * Delivers the events already published and stops the delivery threads, logs the delivery statistics.
+     */
+    public void close() {
+        Subscription[] current;
+        synchronized (this) {
+            closed = true;
+            current = subscriptions;
+        }
+        for (Subscription subscription : current) {
+            subscription.cancelled = true;
+            subscription.wakeUp();
+        }
+        for (Subscription subscription : current) {
+            try {
+                subscription.thread.join();
+            } catch (InterruptedException ignored) {
+            }
+            logger.severe("event bus subscriber " + subscription.name + ": " + subscription.delivered() + " events delivered, "
+                    + subscription.dropped() + " dropped");
+        }
+        synchronized (this) {
+            subscriptions = new Subscription[0];
+            wanted = 0;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package bguspl.set;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.EnumSet;
+import java.util.logging.Logger;
+
+/**
+ * This class writes the game events to a compact binary journal, to be read back by EventJournalReader.
+ * The journal subscribes to the event bus, so the events are encoded on the journal's own thread. They are appended
+ * to a memory mapped segment file (no system call and no formatting per event), and when a segment is full the
+ * journal continues in a new one: name.0.journal, name.1.journal etc.
+ *
+ * Segment header (HEADER_SIZE bytes, little endian): the magic number, the format version, the segment index, 0, the
+ * System.nanoTime and the System.currentTimeMillis the segment was started at.
+ *
+ * Records: the type tag (the type ordinal + 1, a 0 tag ends the segment), the difference of the event's nanoTime from
+ * the previous event's (from the segment start for the first event, zigzag encoded) and the fields of the type in
+ * the order of GameEvent.Type's comments (slots and cards are a length and the elements). All numbers are variable
+ * length ints and the fields are stored + 1, so NONE is 0. A token event takes 6 to 8 bytes.
+ */
+public class EventJournal implements EventBus.Subscriber {
+
+    static final int MAGIC = 0x4A544553; // "SETJ" in little endian
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+
+    /**
+     * Header offsets.
+     */
+    static final int MAGIC_OFFSET = 0;
+    static final int VERSION_OFFSET = 4;
+    static final int INDEX_OFFSET = 8;
+    static final int NANOS_OFFSET = 16;
+    static final int MILLIS_OFFSET = 24;
+
+    /**
+     * The size of the journal's buffer on the bus (when it is full, the newest events are not journaled).
+     */
+    private static final int BUFFER_EVENTS = 1 << 16;
+
+    /**
+     * The smallest segment size allowed.
+     */
+    private static final int MIN_SEGMENT_SIZE = 64 * 1024;
+
+    private final Logger logger;
+    private final File directory;
+    private final String name;
+    private final int segmentSize;
+
+    /**
+     * The current segment (null once the journal is closed or failed) and its index.
+     */
+    private MappedByteBuffer segment;
+    private int index = -1;
+
+    /**
+     * The nanoTime of the last event written to the current segment.
+     */
+    private long lastNanos;
+
+    /**
+     * The number of events and bytes written to the previous segments and the current one.
+     */
+    private long events;
+    private long bytes;
+
+    /**
+     * Creates the first segment of the journal.
+     * @param logger      - the game logger.
+     * @param directory   - the directory of the segment files (created if missing).
+     * @param name        - the name of the journal (the segment files are name.index.journal).
+     * @param segmentSize - the size of a segment file in bytes.
+     * @throws IOException - if the first segment cannot be created.
+     */
+    public EventJournal(Logger logger, File directory, String name, long segmentSize) throws IOException {
+        this.logger = logger;
+        this.directory = directory;
+        this.name = name;
+        this.segmentSize = (int) Math.max(MIN_SEGMENT_SIZE, Math.min(Integer.MAX_VALUE, segmentSize));
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("cannot create the directory " + directory);
+        roll();
+    }
+
+    /**
+     * @return - the file of a segment of a journal.
+     */
+    static File segmentFile(File directory, String name, int index) {
+        return new File(directory, name + "." + index + ".journal");
+    }
+
+    /**
+     * Subscribes the journal to all the events of the bus but the countdown (which the dealer updates many times a
+     * second, and is known from the turn timeout anyway).
+     * @return - the subscription.
+     */
+    public EventBus.Subscription subscribe(EventBus bus) {
+        return bus.subscribe("journal", EnumSet.complementOf(EnumSet.of(GameEvent.Type.COUNTDOWN,
+                GameEvent.Type.COUNTDOWN_WARN)), BUFFER_EVENTS, EventBus.Backpressure.DROP_NEWEST, this);
+    }
+
+    /**
+     * Starts a new segment.
+     */
+    private void roll() throws IOException {
+        if (segment != null)
+            bytes += segment.position();
+        segment = null;
+        File file = segmentFile(directory, name, ++index);
+        MappedByteBuffer mapped;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(0); // a new file is all zeros
+            raf.setLength(segmentSize);
+            mapped = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize); // stays valid after close
+        }
+        mapped.order(ByteOrder.LITTLE_ENDIAN);
+        lastNanos = System.nanoTime();
+        mapped.putInt(MAGIC_OFFSET, MAGIC);
+        mapped.putInt(VERSION_OFFSET, VERSION);
+        mapped.putInt(INDEX_OFFSET, index);
+        mapped.putLong(NANOS_OFFSET, lastNanos);
+        mapped.putLong(MILLIS_OFFSET, System.currentTimeMillis());
+        mapped.position(HEADER_SIZE);
+        segment = mapped;
+    }
+
+    /**
+     * Appends an event to the journal (called on the journal's bus thread).
+     */
+    @Override
+    public void onEvent(GameEvent event) {
+        if (segment == null)
+            return;
+        if (segment.remaining() < maxSize(event)) try {
+            roll();
+        } catch (IOException e) {
+            logger.severe("cannot create the next event journal segment, the journal is stopped: " + e);
+            return;
+        }
+        ByteBuffer out = segment;
+        out.put((byte) (event.type.ordinal() + 1));
+        Varint.put(out, Varint.zigzag(event.nanoTime - lastNanos));
+        lastNanos = event.nanoTime;
+        switch (event.type) {
+            case CARD_PLACED:
+                putInt(out, event.card);
+                putInt(out, event.slot);
+                break;
+            case CARD_REMOVED:
+            case TOKENS_REMOVED:
+                putInt(out, event.slot);
+                break;
+            case TOKEN_PLACED:
+            case TOKEN_REMOVED:
+                putInt(out, event.player);
+                putInt(out, event.slot);
+                break;
+            case SCORE:
+            case FREEZE:
+                putInt(out, event.player);
+                Varint.put(out, event.value);
+                break;
+            case CLAIM:
+                putInt(out, event.player);
+                putSlots(out, event);
+                break;
+            case VERDICT:
+                putInt(out, event.player);
+                putSlots(out, event);
+                putCards(out, event);
+                Varint.put(out, event.value);
+                break;
+            case WINNER:
+                putInt(out, event.player);
+                break;
+        }
+        events++;
+    }
+
+    /**
+     * Stops the journal and trims the last segment to its records, logs the journal statistics.
+     * Must be called after the bus is closed (so no event is being written).
+     */
+    public void close() {
+        if (segment == null)
+            return;
+        int used = segment.position();
+        bytes += used;
+        segment = null;
+        try (RandomAccessFile raf = new RandomAccessFile(segmentFile(directory, name, index), "rw")) {
+            raf.setLength(used);
+        } catch (IOException e) {
+            logger.warning("cannot trim the last event journal segment: " + e);
+        }
+        logger.severe("event journal: " + events + " events, " + bytes + " bytes in " + (index + 1)
+                + " segment(s) " + segmentFile(directory, name, 0).getAbsolutePath());
+    }
+
+    /**
+     * @return - an upper bound of the size of the record of an event.
+     */
+    private static int maxSize(GameEvent event) {
+        return 1 + 10 + 5 * 4 + 10 + 5 * (event.slotCount() + event.cardCount());
+    }
+
+    private static void putInt(ByteBuffer out, int value) {
+        Varint.put(out, value + 1L);
+    }
+
+    private static void putSlots(ByteBuffer out, GameEvent event) {
+        Varint.put(out, event.slotCount());
+        for (int i = 0; i < event.slotCount(); i++)
+            putInt(out, event.slotAt(i));
+    }
+
+    private static void putCards(ByteBuffer out, GameEvent event) {
+        Varint.put(out, event.cardCount());
+        for (int i = 0; i < event.cardCount(); i++)
+            putInt(out, event.cardAt(i));
+    }
+}
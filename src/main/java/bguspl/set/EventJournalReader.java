@@ -0,0 +1,270 @@
+package bguspl.set;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * This class streams the events of a journal written by EventJournal back, in the order they were written.
+ * The segments are memory mapped one at a time and the events are decoded as they are iterated, so a journal of any
+ * length is read in constant memory. Errors of reading a segment are thrown as UncheckedIOException.
+ *
+ * Usage: java -cp target/classes bguspl.set.EventJournalReader directory name [--print]
+ * Prints the number of events of each type and a summary of the claims (and every event with --print).
+ */
+public class EventJournalReader implements Iterator<GameEvent> {
+
+    private static final GameEvent.Type[] TYPES = GameEvent.Type.values();
+
+    private final List<File> segments;
+
+    /**
+     * The index of the next segment to map.
+     */
+    private int nextSegment;
+
+    /**
+     * The mapped segment (null before the first one) and the time it was started at.
+     */
+    private MappedByteBuffer segment;
+    private File segmentFile;
+    private long startNanos;
+    private long startMillis;
+
+    /**
+     * The nanoTime of the last event read from the segment.
+     */
+    private long lastNanos;
+
+    /**
+     * The next event (null if it was not read yet).
+     */
+    private GameEvent next;
+
+    /**
+     * Reads the segments of a journal.
+     * @param directory - the directory of the segment files.
+     * @param name      - the name of the journal.
+     */
+    public EventJournalReader(File directory, String name) {
+        this(segments(directory, name));
+    }
+
+    /**
+     * Reads segments one after the other.
+     */
+    public EventJournalReader(List<File> segments) {
+        this.segments = new ArrayList<>(segments);
+    }
+
+    /**
+     * @return - the segment files of a journal, in order (empty if there is no such journal).
+     */
+    public static List<File> segments(File directory, String name) {
+        List<File> files = new ArrayList<>();
+        for (File file = EventJournal.segmentFile(directory, name, 0); file.isFile();
+             file = EventJournal.segmentFile(directory, name, files.size()))
+            files.add(file);
+        return Collections.unmodifiableList(files);
+    }
+
+    /**
+     * @return - the events of the journal as a sequential stream.
+     */
+    public Stream<GameEvent> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * @return - the wall clock time (milliseconds since the epoch) of an event of the segment being read.
+     */
+    public long epochMillis(GameEvent event) {
+        return startMillis + (event.nanoTime - startNanos) / 1_000_000;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (next == null) {
+            if (segment != null && segment.hasRemaining() && segment.get(segment.position()) != 0)
+                next = read();
+            else if (nextSegment < segments.size())
+                map(segments.get(nextSegment++));
+            else
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public GameEvent next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        GameEvent event = next;
+        next = null;
+        return event;
+    }
+
+    private void map(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        segmentFile = file;
+        segment.order(ByteOrder.LITTLE_ENDIAN);
+        if (segment.capacity() < EventJournal.HEADER_SIZE || segment.getInt(EventJournal.MAGIC_OFFSET) != EventJournal.MAGIC)
+            throw new UncheckedIOException(new IOException(file + " is not an event journal segment"));
+        if (segment.getInt(EventJournal.VERSION_OFFSET) != EventJournal.VERSION)
+            throw new UncheckedIOException(new IOException(file + " has the unsupported journal version "
+                    + segment.getInt(EventJournal.VERSION_OFFSET)));
+        startNanos = segment.getLong(EventJournal.NANOS_OFFSET);
+        startMillis = segment.getLong(EventJournal.MILLIS_OFFSET);
+        lastNanos = startNanos;
+        segment.position(EventJournal.HEADER_SIZE);
+    }
+
+    /**
+     * Decodes the record at the position of the segment.
+     */
+    private GameEvent read() {
+        int position = segment.position();
+        try {
+            int tag = segment.get();
+            if (tag < 1 || tag > TYPES.length)
+                throw new IOException("unknown event type " + tag);
+            GameEvent.Type type = TYPES[tag - 1];
+            lastNanos += Varint.unzigzag(Varint.get(segment));
+            int player = GameEvent.NONE;
+            int slot = GameEvent.NONE;
+            int card = GameEvent.NONE;
+            long value = 0;
+            int[] slots = null;
+            int[] cards = null;
+            switch (type) {
+                case CARD_PLACED:
+                    card = getInt();
+                    slot = getInt();
+                    break;
+                case CARD_REMOVED:
+                case TOKENS_REMOVED:
+                    slot = getInt();
+                    break;
+                case TOKEN_PLACED:
+                case TOKEN_REMOVED:
+                    player = getInt();
+                    slot = getInt();
+                    break;
+                case SCORE:
+                case FREEZE:
+                    player = getInt();
+                    value = Varint.get(segment);
+                    break;
+                case CLAIM:
+                    player = getInt();
+                    slots = getInts();
+                    break;
+                case VERDICT:
+                    player = getInt();
+                    slots = getInts();
+                    cards = getInts();
+                    value = Varint.get(segment);
+                    break;
+                case WINNER:
+                    player = getInt();
+                    break;
+            }
+            return new GameEvent(type, lastNanos, player, slot, card, value, slots, cards);
+        } catch (IOException | BufferUnderflowException e) {
+            throw new UncheckedIOException(new IOException("corrupt record at " + segmentFile + ":" + position, e));
+        }
+    }
+
+    private int getInt() {
+        return (int) Varint.get(segment) - 1;
+    }
+
+    private int[] getInts() throws IOException {
+        long length = Varint.get(segment);
+        if (length > segment.remaining())
+            throw new IOException("invalid length " + length);
+        int[] values = new int[(int) length];
+        for (int i = 0; i < values.length; i++)
+            values[i] = getInt();
+        return values;
+    }
+
+    /**
+     * Prints a summary of a journal.
+     */
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.err.println("usage: EventJournalReader directory name [--print]");
+            System.exit(1);
+        }
+        boolean print = args.length > 2 && args[2].equals("--print");
+        List<File> files = segments(new File(args[0]), args[1]);
+        if (files.isEmpty()) {
+            System.err.println("no journal " + args[1] + " in " + args[0]);
+            System.exit(1);
+        }
+
+        long[] counts = new long[TYPES.length];
+        long[] claimNanos = new long[0];
+        long legal = 0;
+        long verdictNanos = 0;
+        long verdicts = 0;
+        long first = 0;
+        long last = 0;
+        long start = System.nanoTime();
+        EventJournalReader reader = new EventJournalReader(files);
+        while (reader.hasNext()) {
+            GameEvent event = reader.next();
+            if (first == 0)
+                first = event.nanoTime;
+            counts[event.type.ordinal()]++;
+            last = event.nanoTime;
+            if (event.player >= claimNanos.length)
+                claimNanos = Arrays.copyOf(claimNanos, event.player + 1);
+            if (event.type == GameEvent.Type.CLAIM)
+                claimNanos[event.player] = event.nanoTime;
+            else if (event.type == GameEvent.Type.VERDICT) {
+                legal += event.value;
+                if (claimNanos[event.player] != 0) {
+                    verdictNanos += event.nanoTime - claimNanos[event.player];
+                    verdicts++;
+                    claimNanos[event.player] = 0;
+                }
+            }
+            if (print)
+                System.out.printf("%tT.%<tL %s%n", reader.epochMillis(event), event);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        long total = Arrays.stream(counts).sum();
+        long bytes = files.stream().mapToLong(File::length).sum();
+        System.out.printf("%d events in %d segment(s), %d bytes (%.1f bytes per event), %.1f seconds of game%n",
+                total, files.size(), bytes, total == 0 ? 0.0 : (double) bytes / total, (last - first) / 1e9);
+        for (GameEvent.Type type : TYPES)
+            System.out.printf("  %-15s %d%n", type, counts[type.ordinal()]);
+        long claims = counts[GameEvent.Type.VERDICT.ordinal()];
+        System.out.printf("%d verdicts, %d legal, mean claim to verdict %.3f ms%n",
+                claims, legal, verdicts == 0 ? 0.0 : verdictNanos / 1e6 / verdicts);
+        System.out.printf("read in %.1f ms (%.1f million events per second)%n",
+                elapsed / 1e6, elapsed == 0 ? 0.0 : total * 1e3 / elapsed);
+    }
+}
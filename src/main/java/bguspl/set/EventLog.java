@@ -0,0 +1,258 @@
+package bguspl.set;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * This class logs the frequent game events (user interface updates and key presses).
+ * The level is checked before anything is done. In asynchronous mode an event is stored as numbers in a preallocated
+ * ring buffer (nothing is allocated and no lock is taken by the caller), and a background writer builds the messages
+ * and passes them to the logger, so they keep the format and the time of the event. Events that arrive when the ring
+ * is full are counted and reported by the writer. In synchronous mode the messages are logged by the caller.
+ */
+public class EventLog {
+
+    /**
+     * Event codes
+     */
+    public static final int PLACE_CARD = 0;
+    public static final int REMOVE_CARD = 1;
+    public static final int PLACE_TOKEN = 2;
+    public static final int REMOVE_ALL_TOKENS = 3;
+    public static final int REMOVE_TOKENS = 4;
+    public static final int REMOVE_TOKEN = 5;
+    public static final int COUNTDOWN = 6;
+    public static final int ELAPSED = 7;
+    public static final int FREEZE = 8;
+    public static final int SCORE = 9;
+    public static final int KEY = 10;
+    public static final int MESSAGE = 11;
+
+    /**
+     * The level the events are logged at.
+     */
+    private static final Level LEVEL = Level.SEVERE;
+
+    /**
+     * The number of events the ring can hold (a power of 2).
+     */
+    private static final int CAPACITY = 1 << 12;
+    private static final int MASK = CAPACITY - 1;
+
+    /**
+     * The time the writer parks when the ring is empty.
+     */
+    private static final long IDLE_NANOS = 5_000_000L;
+
+    private final Logger logger;
+
+    /**
+     * True iff the events are logged by the background writer.
+     */
+    private final boolean async;
+
+    /**
+     * The ring buffer: the fields of the event in each cell.
+     */
+    private final int[] codes;
+    private final long[] firsts;
+    private final long[] seconds;
+    private final long[] millis;
+    private final String[] messages;
+
+    /**
+     * The sequence number + 1 of the event published in each cell (0 if none yet).
+     */
+    private final AtomicLongArray published;
+
+    /**
+     * The sequence number of the next event to claim a cell.
+     */
+    private final AtomicLong head = new AtomicLong(0);
+
+    /**
+     * The sequence number of the next event to write (only written by the writer).
+     */
+    private volatile long tail = 0;
+
+    /**
+     * The number of events dropped since the writer last reported it.
+     */
+    private final AtomicLong dropped = new AtomicLong(0);
+
+    /**
+     * The writer thread (null in synchronous mode).
+     */
+    private final Thread writer;
+
+    private volatile boolean closed;
+
+    /**
+     * The writer's message buffer.
+     */
+    private final StringBuilder message = new StringBuilder(64);
+
+    /**
+     * @param logger - the logger to log the events to.
+     * @param async  - true iff the events should be logged by a background writer.
+     */
+    public EventLog(Logger logger, boolean async) {
+        this.logger = logger;
+        this.async = async;
+        codes = new int[async ? CAPACITY : 0];
+        firsts = new long[codes.length];
+        seconds = new long[codes.length];
+        millis = new long[codes.length];
+        messages = new String[codes.length];
+        published = new AtomicLongArray(codes.length);
+        if (async) {
+            writer = new Thread(this::write, "log-writer");
+            writer.setDaemon(true);
+            writer.start();
+        } else
+            writer = null;
+    }
+
+    /**
+     * @return - true iff events are logged at all (callers may use it to skip building arguments).
+     */
+    public boolean isLoggable() {
+        return logger.isLoggable(LEVEL);
+    }
+
+    /**
+     * Logs an event with up to two numeric arguments.
+     * @param code   - the event code.
+     * @param first  - the first argument (if any).
+     * @param second - the second argument (if any).
+     */
+    public void event(int code, long first, long second) {
+        if (!logger.isLoggable(LEVEL))
+            return;
+        if (async && !closed)
+            publish(code, first, second, null);
+        else
+            logger.log(LEVEL, format(new StringBuilder(64), code, first, second, null).toString());
+    }
+
+    /**
+     * Logs a prebuilt message in order with the other events (for infrequent events).
+     */
+    public void message(String text) {
+        if (!logger.isLoggable(LEVEL))
+            return;
+        if (async && !closed)
+            publish(MESSAGE, 0, 0, text);
+        else
+            logger.log(LEVEL, text);
+    }
+
+    /**
+     * Writes the events left in the ring and stops the writer, later events are logged synchronously.
+     */
+    public void close() {
+        if (writer == null || closed)
+            return;
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    private void publish(int code, long first, long second, String text) {
+        long sequence;
+        do {
+            sequence = head.get();
+            if (sequence - tail >= CAPACITY) {
+                dropped.incrementAndGet();
+                return;
+            }
+        } while (!head.compareAndSet(sequence, sequence + 1));
+        int cell = (int) (sequence & MASK);
+        codes[cell] = code;
+        firsts[cell] = first;
+        seconds[cell] = second;
+        millis[cell] = System.currentTimeMillis();
+        messages[cell] = text;
+        published.set(cell, sequence + 1);
+    }
+
+    /**
+     * The writer loop: writes the events in the order of their sequence numbers.
+     */
+    private void write() {
+        while (true) {
+            long sequence = tail;
+            int cell = (int) (sequence & MASK);
+            if (published.get(cell) != sequence + 1) {
+                if (closed && head.get() == sequence)
+                    break;
+                reportDropped();
+                LockSupport.parkNanos(this, IDLE_NANOS);
+                continue;
+            }
+            message.setLength(0);
+            format(message, codes[cell], firsts[cell], seconds[cell], messages[cell]);
+            long time = millis[cell];
+            messages[cell] = null;
+            tail = sequence + 1; // the cell may be reused from here on
+            LogRecord record = new LogRecord(LEVEL, message.toString());
+            setTime(record, time);
+            record.setLoggerName(logger.getName());
+            logger.log(record);
+        }
+        reportDropped();
+    }
+
+    /**
+     * Sets the time of a record to the time of its event.
+     */
+    @SuppressWarnings("deprecation") // setInstant replaced setMillis in Java 9, the game targets Java 8
+    private static void setTime(LogRecord record, long millis) {
+        record.setMillis(millis);
+    }
+
+    private void reportDropped() {
+        long count = dropped.getAndSet(0);
+        if (count > 0)
+            logger.log(LEVEL, "warning: " + count + " log events were dropped (the log writer fell behind)");
+    }
+
+    /**
+     * Builds the message of an event (the same messages the user interface decorator and the input manager log).
+     */
+    private static StringBuilder format(StringBuilder sb, int code, long first, long second, String text) {
+        switch (code) {
+            case PLACE_CARD:
+                return sb.append("placing card ").append(first).append(" in slot ").append(second);
+            case REMOVE_CARD:
+                return sb.append("removing card from slot ").append(first);
+            case PLACE_TOKEN:
+                return sb.append("player ").append(first + 1).append(" placing token on slot ").append(second);
+            case REMOVE_ALL_TOKENS:
+                return sb.append("removing all tokens");
+            case REMOVE_TOKENS:
+                return sb.append("removing tokens from slot ").append(first);
+            case REMOVE_TOKEN:
+                return sb.append("removing player ").append(first + 1).append(" token from slot ").append(second);
+            case COUNTDOWN:
+                return sb.append("updating countdown to ").append(first);
+            case ELAPSED:
+                return sb.append("updating elapsed time to ").append(first);
+            case FREEZE:
+                return sb.append("setting player ").append(first + 1).append(" freeze to ").append(second);
+            case SCORE:
+                return sb.append("setting player ").append(first + 1).append(" score to ").append(second);
+            case KEY:
+                return sb.append("key ").append(first).append(" was pressed by player ").append(second + 1);
+            default:
+                return sb.append(text);
+        }
+    }
+}
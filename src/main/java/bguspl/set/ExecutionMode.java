@@ -0,0 +1,71 @@
+package bguspl.set;
+
+import java.lang.reflect.Method;
+
+/**
+ * The ways the player and computer player loops can be executed.
+ */
+public enum ExecutionMode {
+
+    /**
+     * One platform (OS) thread per player and one per computer player.
+     */
+    PLATFORM,
+
+    /**
+     * One virtual thread per player and one per computer player.
+     * Requires a Java 21+ runtime, otherwise platform threads are used.
+     */
+    VIRTUAL,
+
+    /**
+     * No thread per player: every player is an actor whose events are processed on a shared scheduler of
+     * config.actorThreads threads.
+     */
+    ACTOR;
+
+    /**
+     * Thread.ofVirtual(), Thread.Builder.name(String) and Thread.Builder.unstarted(Runnable), looked up by
+     * reflection so that the game still compiles and runs on older JDKs (null if not supported).
+     */
+    private static final Method[] virtualBuilder = lookupVirtualBuilder();
+
+    private static Method[] lookupVirtualBuilder() {
+        try {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            return new Method[]{
+                    Thread.class.getMethod("ofVirtual"),
+                    builder.getMethod("name", String.class),
+                    builder.getMethod("unstarted", Runnable.class)};
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return - true iff threads of this mode can be created by the running JVM.
+     */
+    public boolean isSupported() {
+        return this != VIRTUAL || virtualBuilder != null;
+    }
+
+    /**
+     * Creates an unstarted thread according to the execution mode.
+     *
+     * @param target - the runnable to run in the thread.
+     * @param name   - the name of the thread.
+     * @return - the new thread.
+     */
+    public Thread newThread(Runnable target, String name) {
+        if (this == VIRTUAL && virtualBuilder != null) {
+            try {
+                Object builder = virtualBuilder[0].invoke(null);
+                builder = virtualBuilder[1].invoke(builder, name);
+                return (Thread) virtualBuilder[2].invoke(builder, target);
+            } catch (ReflectiveOperationException ignored) {
+                // fall back to a platform thread
+            }
+        }
+        return new Thread(target, name);
+    }
+}
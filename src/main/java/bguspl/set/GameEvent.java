@@ -0,0 +1,159 @@
+package bguspl.set;
+
+import java.util.Arrays;
+
+/**
+ * An event of the game, published on the event bus.
+ * Every event has a type, the System.nanoTime it happened at, and the fields its type uses (the others are NONE or
+ * null). Events are immutable, so one event object is shared by all the subscribers: the slots and cards are read
+ * one element at a time, never as the event's own arrays.
+ */
+public final class GameEvent {
+
+    /**
+     * The event types and the fields they use.
+     */
+    public enum Type {
+        /** card, slot */
+        CARD_PLACED,
+        /** slot */
+        CARD_REMOVED,
+        /** player, slot */
+        TOKEN_PLACED,
+        /** player, slot */
+        TOKEN_REMOVED,
+        /** slot (NONE for all the slots) - all the tokens were removed */
+        TOKENS_REMOVED,
+        /** player, value = the score */
+        SCORE,
+        /** player, value = the freeze time left in milliseconds (0 when the freeze is over) */
+        FREEZE,
+        /** player, slots - a player claimed a set */
+        CLAIM,
+        /** player, slots, cards, value = 1 if the set is legal, 0 if not - the dealer's verdict on a claim */
+        VERDICT,
+        /** player - a winner of the game (one event per winner) */
+        WINNER,
+        /** value = the countdown in milliseconds */
+        COUNTDOWN,
+        /** value = the countdown in milliseconds - the countdown is in the warning time */
+        COUNTDOWN_WARN
+    }
+
+    /**
+     * The value of unused fields.
+     */
+    public static final int NONE = -1;
+
+    public final Type type;
+    public final long nanoTime;
+    public final int player;
+    public final int slot;
+    public final int card;
+    public final long value;
+    private final int[] slots;
+    private final int[] cards;
+
+    private GameEvent(Type type, int player, int slot, int card, long value, int[] slots, int[] cards) {
+        this(type, System.nanoTime(), player, slot, card, value, slots, cards);
+    }
+
+    /**
+     * An event that happened at the given time (e.g. read back from the event journal).
+     */
+    GameEvent(Type type, long nanoTime, int player, int slot, int card, long value, int[] slots, int[] cards) {
+        this.type = type;
+        this.nanoTime = nanoTime;
+        this.player = player;
+        this.slot = slot;
+        this.card = card;
+        this.value = value;
+        this.slots = slots;
+        this.cards = cards;
+    }
+
+    /**
+     * @return - the number of slots of a claim or a verdict (0 for the other types).
+     */
+    public int slotCount() {
+        return slots == null ? 0 : slots.length;
+    }
+
+    /**
+     * @return - the i-th slot of a claim or a verdict.
+     */
+    public int slotAt(int i) {
+        return slots[i];
+    }
+
+    /**
+     * @return - the number of cards of a verdict (0 for the other types).
+     */
+    public int cardCount() {
+        return cards == null ? 0 : cards.length;
+    }
+
+    /**
+     * @return - the i-th card of a verdict.
+     */
+    public int cardAt(int i) {
+        return cards[i];
+    }
+
+    public static GameEvent cardPlaced(int card, int slot) {
+        return new GameEvent(Type.CARD_PLACED, NONE, slot, card, 0, null, null);
+    }
+
+    public static GameEvent cardRemoved(int slot) {
+        return new GameEvent(Type.CARD_REMOVED, NONE, slot, NONE, 0, null, null);
+    }
+
+    public static GameEvent tokenPlaced(int player, int slot) {
+        return new GameEvent(Type.TOKEN_PLACED, player, slot, NONE, 0, null, null);
+    }
+
+    public static GameEvent tokenRemoved(int player, int slot) {
+        return new GameEvent(Type.TOKEN_REMOVED, player, slot, NONE, 0, null, null);
+    }
+
+    public static GameEvent tokensRemoved(int slot) {
+        return new GameEvent(Type.TOKENS_REMOVED, NONE, slot, NONE, 0, null, null);
+    }
+
+    public static GameEvent score(int player, int score) {
+        return new GameEvent(Type.SCORE, player, NONE, NONE, score, null, null);
+    }
+
+    public static GameEvent freeze(int player, long millies) {
+        return new GameEvent(Type.FREEZE, player, NONE, NONE, Math.max(0, millies), null, null);
+    }
+
+    public static GameEvent claim(int player, int[] slots) {
+        return new GameEvent(Type.CLAIM, player, NONE, NONE, 0, slots.clone(), null);
+    }
+
+    public static GameEvent verdict(int player, int[] slots, int[] cards, boolean legal) {
+        return new GameEvent(Type.VERDICT, player, NONE, NONE, legal ? 1 : 0, slots.clone(), cards.clone());
+    }
+
+    public static GameEvent winner(int player) {
+        return new GameEvent(Type.WINNER, player, NONE, NONE, 0, null, null);
+    }
+
+    public static GameEvent countdown(long millies, boolean warn) {
+        return new GameEvent(warn ? Type.COUNTDOWN_WARN : Type.COUNTDOWN, NONE, NONE, NONE, millies, null, null);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(type.name());
+        if (player != NONE) sb.append(" player=").append(player + 1);
+        if (slot != NONE) sb.append(" slot=").append(slot);
+        if (card != NONE) sb.append(" card=").append(card);
+        if (type == Type.SCORE || type == Type.FREEZE || type == Type.VERDICT || type == Type.COUNTDOWN
+                || type == Type.COUNTDOWN_WARN) sb.append(" value=").append(value);
+        if (slots != null) sb.append(" slots=").append(Arrays.toString(slots));
+        if (cards != null) sb.append(" cards=").append(Arrays.toString(cards));
+        return sb.toString();
+    }
+}
@@ -5,22 +5,37 @@ import bguspl.set.ex.Player;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
 import java.util.logging.Logger;
 
 /**
  * This class handles the input from the keyboard, translates it to table grid slots and dispatches accordingly.
+ * The event dispatch thread only stamps each press and stores it in an input ring, a dispatcher thread passes the
+ * presses to the players and measures the time from the key event to the player (reported every few seconds).
  */
 class InputManager extends KeyAdapter {
 
     private static final int MAX_KEY_CODE = 255;
+    private static final int RING_SIZE = 256;
+    private static final long REPORT_NANOS = 5_000_000_000L;
     private final Player[] players;
     int[] keyMap = new int[MAX_KEY_CODE + 1];
     int[] keyToSlot = new int[MAX_KEY_CODE + 1];
     private final Logger logger;
+    private final EventLog events;
+    private final InputRing presses = new InputRing(RING_SIZE);
+    private final Thread dispatcher;
+    private volatile boolean stopped;
 
-    public InputManager(Logger logger, Config config, Player[] players) {
+    /**
+     * The input latency since the last report (only accessed by the dispatcher)
+     */
+    private long count, totalNanos, maxNanos;
+
+    public InputManager(Logger logger, EventLog events, Config config, Player[] players) {
         this.players = players;
         this.logger = logger;
+        this.events = events;
 
         // initialize the keys
         for (int player = 0; player < config.players; ++player)
@@ -30,6 +45,58 @@ class InputManager extends KeyAdapter {
                 keyMap[keyCode] = player + 1; // 1 for first player and 2 for second player
                 keyToSlot[keyCode] = i;
             }
+
+        dispatcher = new Thread(this::dispatch, "input-dispatcher");
+        dispatcher.setDaemon(true);
+        ThreadLogger.logStart(logger, dispatcher.getName());
+        dispatcher.start();
+    }
+
+    /**
+     * Stops the dispatcher (presses still in the input ring are discarded).
+     */
+    void stop() {
+        stopped = true;
+        LockSupport.unpark(dispatcher);
+        try {
+            dispatcher.join();
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    /**
+     * The dispatcher loop: passes the presses in the input ring to the players
+     */
+    private void dispatch() {
+        long report = System.nanoTime() + REPORT_NANOS;
+        long dropped = 0;
+        while (!stopped) {
+            presses.drain(this::press);
+            long now = System.nanoTime();
+            if (now >= report) {
+                if (count > 0)
+                    events.message("input latency: " + count + " presses, mean " + totalNanos / count / 1000
+                            + " us, max " + maxNanos / 1000 + " us");
+                if (presses.dropped() > dropped) {
+                    events.message("warning: " + (presses.dropped() - dropped) + " key presses were dropped");
+                    dropped = presses.dropped();
+                }
+                count = totalNanos = maxNanos = 0;
+                report = now + REPORT_NANOS;
+            }
+            if (presses.isEmpty() && !stopped)
+                LockSupport.parkNanos(this, report - now);
+        }
+        ThreadLogger.logStop(logger, Thread.currentThread().getName());
+    }
+
+    private void press(int keyCode, int player, int slot, long pressNanos) {
+        events.event(EventLog.KEY, keyCode, player);
+        players[player].keyPressed(slot);
+        long latency = System.nanoTime() - pressNanos;
+        count++;
+        totalNanos += latency;
+        maxNanos = Math.max(maxNanos, latency);
     }
 
     private void reallocArrays(int keyCode) {
@@ -42,9 +109,7 @@ class InputManager extends KeyAdapter {
         // dispatch the key event to the player according to the key map
         int keyCode = e.getKeyCode();
         int player = keyMap[keyCode] - 1;
-        if (player >= 0){
-            logger.severe("key " + keyCode + " was pressed by player " + (player + 1));
-            players[player].keyPressed(keyToSlot[keyCode]);
-        }
+        if (player >= 0 && presses.offer(keyCode, player, keyToSlot[keyCode]))
+            LockSupport.unpark(dispatcher);
     }
 }
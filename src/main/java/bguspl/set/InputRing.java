@@ -0,0 +1,98 @@
+package bguspl.set;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A single producer, single consumer ring of key presses.
+ * The producer (the event dispatch thread) stores the key code, the player, the slot and the time of each press in
+ * preallocated arrays and publishes it with an ordered write of the head, so a press costs no allocation and no lock.
+ * The consumer reads the presses up to the head and releases their cells with an ordered write of the tail.
+ * Presses that arrive when the ring is full are dropped and counted.
+ */
+class InputRing {
+
+    /**
+     * A consumer of presses.
+     */
+    interface Consumer {
+        void accept(int keyCode, int player, int slot, long pressNanos);
+    }
+
+    private final int mask;
+    private final int[] keyCodes;
+    private final int[] players;
+    private final int[] slots;
+    private final long[] stamps;
+
+    /**
+     * The sequence number of the next press to publish (written by the producer only) and of the next press to
+     * consume (written by the consumer only).
+     */
+    private final AtomicLong head = new AtomicLong(0);
+    private final AtomicLong tail = new AtomicLong(0);
+
+    /**
+     * The number of presses dropped because the ring was full (written by the producer only).
+     */
+    private volatile long dropped;
+
+    /**
+     * @param capacity - the number of presses the ring holds (rounded up to a power of 2).
+     */
+    InputRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        mask = size - 1;
+        keyCodes = new int[size];
+        players = new int[size];
+        slots = new int[size];
+        stamps = new long[size];
+    }
+
+    /**
+     * Publishes a press, stamped with the current System.nanoTime (producer only).
+     * @return - false iff the ring was full and the press was dropped.
+     */
+    boolean offer(int keyCode, int player, int slot) {
+        long sequence = head.get();
+        if (sequence - tail.get() > mask) {
+            dropped = dropped + 1;
+            return false;
+        }
+        int cell = (int) (sequence & mask);
+        keyCodes[cell] = keyCode;
+        players[cell] = player;
+        slots[cell] = slot;
+        stamps[cell] = System.nanoTime();
+        head.lazySet(sequence + 1);
+        return true;
+    }
+
+    /**
+     * Passes the published presses to the consumer in order (consumer only).
+     * @return - the number of presses consumed.
+     */
+    int drain(Consumer consumer) {
+        long sequence = tail.get();
+        long available = head.get();
+        for (long next = sequence; next < available; next++) {
+            int cell = (int) (next & mask);
+            consumer.accept(keyCodes[cell], players[cell], slots[cell], stamps[cell]);
+            tail.lazySet(next + 1);
+        }
+        return (int) (available - sequence);
+    }
+
+    /**
+     * @return - true iff there are no published presses left to consume.
+     */
+    boolean isEmpty() {
+        return head.get() == tail.get();
+    }
+
+    /**
+     * @return - the number of presses dropped so far.
+     */
+    long dropped() {
+        return dropped;
+    }
+}
@@ -0,0 +1,295 @@
+package bguspl.set;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+
+/**
+ * A log handler that writes the records to files in a directory.
+ * Each thread formats its records into buffers of its own (the default format is built by hand, with the time of day
+ * cached per second, any other format falls back to String.format), so logging threads only serialize to copy the
+ * bytes into a shared buffer. The shared buffer is written to the file through a FileChannel when it is full, on
+ * flush, and periodically by a daemon thread. When a file grows past the rotation size, the next part of the log is
+ * written to a new file (name.1.log, name.2.log, ...) and the oldest parts beyond the file count are deleted.
+ */
+public class LogSink extends Handler {
+
+    /**
+     * The format that is built without String.format.
+     */
+    public static final String DEFAULT_FORMAT = "[%1$tT.%1$tL] [%2$-7s] %3$s%n";
+
+    /**
+     * The size of the shared buffer and the initial size of the per thread buffers.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int RECORD_SIZE = 256;
+
+    /**
+     * The time between two periodic writes of the shared buffer.
+     */
+    private static final long FLUSH_MILLIS = 250;
+
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    private final File directory;
+    private final String name;
+
+    /**
+     * Guards the shared buffer, the channel and the rotation state.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private FileChannel channel;
+
+    /**
+     * The number of bytes written to the current file, the number of the current part and the rotation settings.
+     */
+    private long written;
+    private int part;
+    private volatile long maxBytes;
+    private volatile int maxFiles;
+
+    /**
+     * The format of the records, and true iff it is the default format.
+     */
+    private volatile String format = DEFAULT_FORMAT;
+    private volatile boolean defaultFormat = true;
+
+    private volatile boolean closed;
+
+    /**
+     * The formatting state of each logging thread.
+     */
+    private final ThreadLocal<Encoder> encoders = ThreadLocal.withInitial(Encoder::new);
+
+    /**
+     * @param directory - the directory of the log files (created if missing).
+     * @param name      - the name of the log, the first file is name.log.
+     * @throws IOException - if the first file cannot be opened.
+     */
+    public LogSink(File directory, String name) throws IOException {
+        this.directory = directory;
+        this.name = name;
+        //noinspection ResultOfMethodCallIgnored
+        directory.mkdirs();
+        channel = open(0);
+        Thread flusher = new Thread(() -> {
+            while (!closed) {
+                try {
+                    Thread.sleep(FLUSH_MILLIS);
+                } catch (InterruptedException ignored) {
+                }
+                flush();
+            }
+        }, "log-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Sets the format of the records (the same arguments SimpleFormatter-style formats get: date, level, message).
+     */
+    public void setFormat(String format) {
+        this.format = format;
+        defaultFormat = DEFAULT_FORMAT.equals(format);
+    }
+
+    /**
+     * Sets the size-based rotation of the log files.
+     * @param maxBytes - the size a file may grow to before the log continues in a new file (0 for no rotation).
+     * @param maxFiles - the number of files to keep (0 to keep all of them).
+     */
+    public void setRotation(long maxBytes, int maxFiles) {
+        this.maxBytes = maxBytes;
+        this.maxFiles = maxFiles;
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+        if (closed || !isLoggable(record))
+            return;
+        Encoder encoder = encoders.get();
+        ByteBuffer bytes;
+        try {
+            bytes = encoder.encode(record);
+        } catch (RuntimeException e) {
+            reportError(null, e, ErrorManager.FORMAT_FAILURE);
+            return;
+        }
+        lock.lock();
+        try {
+            while (bytes.hasRemaining()) {
+                if (!buffer.hasRemaining())
+                    write();
+                int chunk = Math.min(bytes.remaining(), buffer.remaining());
+                int limit = bytes.limit();
+                bytes.limit(bytes.position() + chunk);
+                buffer.put(bytes);
+                bytes.limit(limit);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void flush() {
+        lock.lock();
+        try {
+            write();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (closed)
+                return;
+            write();
+            closed = true;
+            channel.close();
+        } catch (IOException e) {
+            reportError(null, e, ErrorManager.CLOSE_FAILURE);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the shared buffer to the current file and rotates the file if it is full, must hold the lock.
+     */
+    private void write() {
+        if (closed || buffer.position() == 0)
+            return;
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining())
+                written += channel.write(buffer);
+            if (maxBytes > 0 && written >= maxBytes)
+                rotate();
+        } catch (IOException e) {
+            reportError(null, e, ErrorManager.WRITE_FAILURE);
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Continues the log in the next file, and deletes the oldest file if there are too many.
+     */
+    private void rotate() throws IOException {
+        channel.close();
+        part++;
+        channel = open(part);
+        written = 0;
+        if (maxFiles > 0 && part - maxFiles >= 0) {
+            //noinspection ResultOfMethodCallIgnored
+            file(part - maxFiles).delete();
+        }
+    }
+
+    private FileChannel open(int part) throws IOException {
+        return FileChannel.open(file(part).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    private File file(int part) {
+        return new File(directory, part == 0 ? name + ".log" : name + "." + part + ".log");
+    }
+
+    /**
+     * The formatting buffers of one logging thread.
+     */
+    private class Encoder {
+
+        private final StringBuilder text = new StringBuilder(RECORD_SIZE);
+        private final CharsetEncoder utf8 = StandardCharsets.UTF_8.newEncoder();
+        private ByteBuffer bytes = ByteBuffer.allocate(RECORD_SIZE * 2);
+
+        /**
+         * The second of the cached time of day, and the time of day (HH:mm:ss) of that second.
+         */
+        private long second = Long.MIN_VALUE;
+        private final char[] timeOfDay = new char[8];
+
+        /**
+         * @return - the bytes of the formatted record (valid until the next call of the same thread).
+         */
+        ByteBuffer encode(LogRecord record) {
+            text.setLength(0);
+            String level = record.getLevel().getLocalizedName();
+            if (defaultFormat) {
+                long millis = record.getMillis();
+                text.append('[').append(timeOfDay(millis)).append('.');
+                appendPadded(millis % 1000, 3);
+                text.append("] [").append(level);
+                for (int i = level.length(); i < 7; i++)
+                    text.append(' ');
+                text.append("] ").append(record.getMessage()).append(LINE_SEPARATOR);
+            } else
+                text.append(String.format(format, new Date(record.getMillis()), level, record.getMessage()));
+
+            CharBuffer chars = CharBuffer.wrap(text);
+            bytes.clear();
+            utf8.reset();
+            CoderResult result;
+            while ((result = utf8.encode(chars, bytes, true)).isOverflow())
+                bytes = grow(bytes);
+            while (utf8.flush(bytes).isOverflow())
+                bytes = grow(bytes);
+            if (result.isError())
+                bytes.clear();
+            bytes.flip();
+            return bytes;
+        }
+
+        private char[] timeOfDay(long millis) {
+            long current = millis / 1000;
+            if (current != second) {
+                second = current;
+                long local = (millis + TimeZone.getDefault().getOffset(millis)) / 1000 % (24 * 60 * 60);
+                if (local < 0)
+                    local += 24 * 60 * 60;
+                put(0, local / 3600);
+                timeOfDay[2] = ':';
+                put(3, local / 60 % 60);
+                timeOfDay[5] = ':';
+                put(6, local % 60);
+            }
+            return timeOfDay;
+        }
+
+        private void put(int index, long value) {
+            timeOfDay[index] = (char) ('0' + value / 10);
+            timeOfDay[index + 1] = (char) ('0' + value % 10);
+        }
+
+        private void appendPadded(long value, int digits) {
+            for (long scale = (long) Math.pow(10, digits - 1); scale > 0; scale /= 10)
+                text.append((char) ('0' + value / scale % 10));
+        }
+
+        private ByteBuffer grow(ByteBuffer full) {
+            ByteBuffer larger = ByteBuffer.allocate(full.capacity() * 2);
+            full.flip();
+            larger.put(full);
+            return larger;
+        }
+    }
+}
@@ -1,8 +1,12 @@
 package bguspl.set;
 
 import bguspl.set.ex.Dealer;
+import bguspl.set.ex.LoadGenerator;
 import bguspl.set.ex.Player;
 import bguspl.set.ex.Table;
+import bguspl.set.net.PlayerServer;
+import bguspl.set.net.SharedMemoryChannel;
+import bguspl.set.net.SpectatorServer;
 
 import java.io.File;
 import java.io.IOException;
@@ -23,6 +27,11 @@ public class Main {
     private static boolean xButtonPressed = false;
     private static Logger logger;
 
+    /**
+     * The name of the game's log and journal files (the time the game started).
+     */
+    private static String gameName;
+
     public static void xButtonPressed() throws InterruptedException {
         if (logger != null) logger.severe("exit button pressed");
         xButtonPressed = true;
@@ -45,19 +54,52 @@ public class Main {
         Config config = new Config(logger, "config.properties");
         Util util = new UtilImpl(config);
 
+        EventLog events = new EventLog(logger, config.asyncLogging);
+        EventBus bus = new EventBus(logger, config.executionMode);
+        EventJournal journal = null;
+        if (!config.journalDirectory.isEmpty()) try {
+            journal = new EventJournal(logger, new File(config.journalDirectory), gameName, config.journalSegmentBytes);
+            journal.subscribe(bus);
+        } catch (IOException e) {
+            logger.severe("cannot create the event journal in " + config.journalDirectory + ": " + e);
+        }
+
         Player[] players = new Player[config.players];
         UserInterface ui = null;
         try {
-            ui = new UserInterfaceSwing(logger, config, players);
+            if (!config.loadTest) // load tests are headless
+                ui = new UserInterfaceSwing(logger, events, config, util, players);
         } catch (UnsupportedOperationException | IllegalArgumentException e) {
             logger.severe("error creating swing user interface: " + e.getMessage());
             logger.severe("will try to run without user interface");
             if (config.humanPlayers > 0)
                 logger.severe("warning: running with human players with no user interface");
         }
-        ui = new UserInterfaceDecorator(logger, util, ui);
+        // the servers and the shared memory channel get the updates of the game from the bus
+        PlayerServer server = null;
+        if (config.serverPort > 0) try {
+            server = new PlayerServer(logger, config, players);
+            server.subscribe(bus);
+        } catch (IOException e) {
+            logger.severe("cannot start the player server on port " + config.serverPort + ": " + e);
+        }
+        SpectatorServer spectators = null;
+        if (config.spectatorPort > 0) try {
+            spectators = new SpectatorServer(logger, config);
+            spectators.subscribe(bus);
+        } catch (IOException e) {
+            logger.severe("cannot start the spectator server on port " + config.spectatorPort + ": " + e);
+        }
+        SharedMemoryChannel bots = null;
+        if (!config.sharedMemoryFile.isEmpty()) try {
+            bots = new SharedMemoryChannel(logger, config, players);
+            bots.subscribe(bus);
+        } catch (IOException e) {
+            logger.severe("cannot create the shared memory file " + config.sharedMemoryFile + ": " + e);
+        }
+        ui = new UserInterfaceDecorator(util, ui, events, bus);
 
-        Env env = new Env(logger, config, ui, util);
+        Env env = new Env(logger, config, ui, util, bus);
 
         // create the game entities
         Table table = new Table(env);
@@ -65,10 +107,19 @@ public class Main {
         for (int i = 0; i < players.length; i++)
             players[i] = new Player(env, dealer, table, i, i < env.config.humanPlayers);
 
+        // serve the clients of the external players, the spectators and the bots
+        if (server != null) server.start();
+        if (spectators != null) spectators.start();
+        if (bots != null) bots.start();
+
         // start the dealer thread
         ThreadLogger dealerThread = new ThreadLogger(dealer, "dealer", logger);
         dealerThread.startWithLog();
 
+        // drive the external players until the load test is over
+        if (config.loadTest)
+            new LoadGenerator(env, dealer, table, players).run();
+
         try {
             // shutdown stuff
             dealerThread.joinWithLog();
@@ -79,6 +130,12 @@ public class Main {
             System.out.println("Thanks for playing... it was fun!");
             ThreadLogger.logStop(logger, Thread.currentThread().getName());
             if (!xButtonPressed) env.ui.dispose();
+            bus.close(); // delivers the last updates to the servers before they are closed
+            if (server != null) server.close();
+            if (spectators != null) spectators.close();
+            if (bots != null) bots.close();
+            if (journal != null) journal.close();
+            events.close();
             for (Handler h : logger.getHandlers()) h.flush();
         }
     }
@@ -87,11 +144,10 @@ public class Main {
 
         //just to make our log file nicer :)
         SimpleDateFormat format = new SimpleDateFormat("M-d_HH-mm-ss");
-        FileHandler handler;
+        Handler handler;
         try {
-            //noinspection ResultOfMethodCallIgnored
-            new File("./logs/").mkdirs();
-            handler = new FileHandler("./logs/" + format.format(Calendar.getInstance().getTime()) + ".log");
+            gameName = format.format(Calendar.getInstance().getTime());
+            handler = new LogSink(new File("./logs/"), gameName);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -99,17 +155,20 @@ public class Main {
         java.util.logging.Logger logger = java.util.logging.Logger.getLogger("SetGameLogger");
         logger.setUseParentHandlers(false);
         logger.addHandler(handler);
-        setLoggerLevelAndFormat(logger, Level.ALL, "[%1$tT.%1$tL] [%2$-7s] %3$s%n");
+        setLoggerLevelAndFormat(logger, Level.ALL, LogSink.DEFAULT_FORMAT);
 
         return logger;
     }
 
     public static void setLoggerLevelAndFormat(Logger logger, Level level, String format) {
         Handler[] handlers = logger.getHandlers();
-        if (handlers != null) Arrays.stream(handlers).forEach(h -> h.setFormatter(new SimpleFormatter() {
+        // the log sink formats the records itself, other handlers get a formatter
+        if (handlers != null) Arrays.stream(handlers).filter(h -> h instanceof LogSink).forEach(h -> ((LogSink) h).setFormat(format));
+        if (handlers != null) Arrays.stream(handlers).filter(h -> !(h instanceof LogSink)).forEach(h -> h.setFormatter(new SimpleFormatter() {
             // default format (with timestamp)  = "[%1$tF %1$tT] [%2$-7s] %3$s%n";
+            // not synchronized: the formatter is stateless, and a monitor here would pin virtual threads that log
             @Override
-            public synchronized String format(LogRecord lr) {
+            public String format(LogRecord lr) {
                 return String.format(format, new Date(lr.getMillis()),
                         lr.getLevel().getLocalizedName(), lr.getMessage()
                 );
@@ -117,4 +176,9 @@ public class Main {
         }));
         logger.setLevel(level);
     }
+
+    public static void setLogRotation(Logger logger, long maxBytes, int maxFiles) {
+        Handler[] handlers = logger.getHandlers();
+        if (handlers != null) Arrays.stream(handlers).filter(h -> h instanceof LogSink).forEach(h -> ((LogSink) h).setRotation(maxBytes, maxFiles));
+    }
 }
@@ -2,61 +2,75 @@ package bguspl.set;
 
 import java.util.Arrays;
 import java.util.List;
-import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
 public class UserInterfaceDecorator implements UserInterface {
 
-    private final Logger logger;
     private final Util util;
     private final UserInterface ui;
+    private final EventLog events;
+    private final EventBus bus;
 
-    public UserInterfaceDecorator(Logger logger, Util util, UserInterface ui) {
+    /**
+     * The countdown last published (only set by the dealer thread). The dealer sets the countdown in a tight loop in
+     * the warning time, so only a change is published.
+     */
+    private long countdown = Long.MIN_VALUE;
+    private boolean countdownWarn;
+
+    public UserInterfaceDecorator(Util util, UserInterface ui, EventLog events, EventBus bus) {
         this.ui = ui;
-        this.logger = logger;
         this.util = util;
+        this.events = events;
+        this.bus = bus;
 
         if (ui == null) System.out.println("running without a user interface. Check logs.");
     }
 
     @Override
     public void placeCard(int card, int slot) {
-        logger.severe("placing card " + card + " in slot " + slot);
+        events.event(EventLog.PLACE_CARD, card, slot);
+        if (bus.wants(GameEvent.Type.CARD_PLACED)) bus.publish(GameEvent.cardPlaced(card, slot));
         util.spin();
         if (ui != null) ui.placeCard(card, slot);
     }
 
     @Override
     public void removeCard(int slot) {
-        logger.severe("removing card from slot " + slot);
+        events.event(EventLog.REMOVE_CARD, slot, 0);
+        if (bus.wants(GameEvent.Type.CARD_REMOVED)) bus.publish(GameEvent.cardRemoved(slot));
         util.spin();
         if (ui != null) ui.removeCard(slot);
     }
 
     @Override
     public void placeToken(int player, int slot) {
-        logger.severe("player " + (player + 1) + " placing token on slot " + slot);
+        events.event(EventLog.PLACE_TOKEN, player, slot);
+        if (bus.wants(GameEvent.Type.TOKEN_PLACED)) bus.publish(GameEvent.tokenPlaced(player, slot));
         util.spin();
         if (ui != null) ui.placeToken(player, slot);
     }
 
     @Override
     public void removeTokens() {
-        logger.severe("removing all tokens");
+        events.event(EventLog.REMOVE_ALL_TOKENS, 0, 0);
+        if (bus.wants(GameEvent.Type.TOKENS_REMOVED)) bus.publish(GameEvent.tokensRemoved(GameEvent.NONE));
         util.spin();
         if (ui != null) ui.removeTokens();
     }
 
     @Override
     public void removeTokens(int slot) {
-        logger.severe("removing tokens from slot " + slot);
+        events.event(EventLog.REMOVE_TOKENS, slot, 0);
+        if (bus.wants(GameEvent.Type.TOKENS_REMOVED)) bus.publish(GameEvent.tokensRemoved(slot));
         util.spin();
         if (ui != null) ui.removeTokens(slot);
     }
 
     @Override
     public void removeToken(int player, int slot) {
-        logger.severe("removing player " + (player + 1) + " token from slot " + slot);
+        events.event(EventLog.REMOVE_TOKEN, player, slot);
+        if (bus.wants(GameEvent.Type.TOKEN_REMOVED)) bus.publish(GameEvent.tokenRemoved(player, slot));
         util.spin();
         if (ui != null) ui.removeToken(player, slot);
     }
@@ -64,41 +78,54 @@ public class UserInterfaceDecorator implements UserInterface {
     @Override
     public void setCountdown(long millies, boolean warn) {
         if (!warn || millies % 1000L == 0L)
-            logger.severe("updating countdown to " + millies);
+            events.event(EventLog.COUNTDOWN, millies, 0);
+        if ((millies != countdown || warn != countdownWarn)
+                && bus.wants(warn ? GameEvent.Type.COUNTDOWN_WARN : GameEvent.Type.COUNTDOWN)) {
+            countdown = millies;
+            countdownWarn = warn;
+            bus.publish(GameEvent.countdown(millies, warn));
+        }
         if (ui != null) ui.setCountdown(millies, warn);
     }
 
     @Override
     public void setElapsed(long millies) {
-        logger.severe("updating elapsed time to " + millies);
+        events.event(EventLog.ELAPSED, millies, 0);
         util.spin();
         if (ui != null) ui.setElapsed(millies);
     }
 
     @Override
     public void setFreeze(int player, long millies) {
-        logger.severe("setting player " + (player + 1) + " freeze to " + millies);
+        events.event(EventLog.FREEZE, player, millies);
+        if (bus.wants(GameEvent.Type.FREEZE)) bus.publish(GameEvent.freeze(player, millies));
         util.spin();
         if (ui != null) ui.setFreeze(player, millies);
     }
 
     @Override
     public void setScore(int player, int score) {
-        logger.severe("setting player " + (player + 1) + " score to " + score);
+        events.event(EventLog.SCORE, player, score);
+        if (bus.wants(GameEvent.Type.SCORE)) bus.publish(GameEvent.score(player, score));
         util.spin();
         if (ui != null) ui.setScore(player, score);
     }
 
     @Override
     public void announceWinner(int[] players) {
-        List<String> winners = Arrays.stream(players).mapToObj(id -> "player " + (id + 1)).collect(Collectors.toList());
-        logger.severe("announcing winner(s): " + String.join(", ", winners));
+        if (events.isLoggable()) {
+            List<String> winners = Arrays.stream(players).mapToObj(id -> "player " + (id + 1)).collect(Collectors.toList());
+            events.message("announcing winner(s): " + String.join(", ", winners));
+        }
+        if (bus.wants(GameEvent.Type.WINNER))
+            for (int player : players)
+                bus.publish(GameEvent.winner(player));
         if (ui != null) ui.announceWinner(players);
     }
 
     @Override
     public void dispose() {
-        logger.severe("disposing of user interface elements");
+        events.message("disposing of user interface elements");
         if (ui != null) ui.dispose();
     }
 }
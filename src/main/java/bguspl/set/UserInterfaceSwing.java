@@ -4,10 +4,14 @@ import bguspl.set.ex.Player;
 
 import javax.swing.*;
 import java.awt.*;
-import java.io.FileNotFoundException;
-import java.net.URL;
+import java.awt.image.BufferStrategy;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
@@ -15,24 +19,90 @@ import static java.lang.String.format;
 
 /**
  * Java Swing implementation of the UserInterface interface.
+ * The game threads do not call Swing: they record the new state in the pending state below, and a Swing timer
+ * applies it on the event dispatch thread once per frame (config.frameRate), so repeated updates of the same
+ * element between two frames (countdown ticks, token toggles) cost one update of the screen.
+ * In active rendering mode the table is not a Swing component: a render loop draws the latest pending state on a
+ * double buffered canvas at a fixed rate, so drawing costs the same however many events the game generates.
  */
 public class UserInterfaceSwing extends JFrame implements UserInterface {
 
     private final TimerPanel timerPanel;
-    private final GamePanel gamePanel;
+    private final GamePanel gamePanel; // null in active rendering mode
+    private final GameCanvas gameCanvas; // null unless in active rendering mode
     private final PlayersPanel playersPanel;
     private final WinnerPanel winnerPanel;
     private final Config config;
-
-    static String intInBaseToPaddedString(int n, int padding, int base) {
-        return format("%" + padding + "s", Integer.toString(n, base)).replace(' ', '0');
-    }
-
-    public UserInterfaceSwing(Logger logger, Config config, Player[] players) {
+    private final EventLog events;
+
+    /**
+     * Dirty flags of a slot and of a player
+     */
+    private static final int CARD_DIRTY = 1;
+    private static final int TOKENS_DIRTY = 2;
+    private static final int FREEZE_DIRTY = 1;
+    private static final int SCORE_DIRTY = 2;
+
+    /**
+     * The value of an empty slot in pendingCards
+     */
+    private static final int EMPTY_SLOT = -1;
+
+    /**
+     * The flags of the timer in pendingTimer (the bits above them hold the milliseconds)
+     */
+    private static final long WARN = 1;
+    private static final long ELAPSED = 2;
+
+    /**
+     * The pending state: every change writes the new state first and raises its dirty flags after it, so a frame
+     * that clears a flag always sees the state that was written before the flag was raised.
+     */
+    private final AtomicIntegerArray pendingCards;
+    private final AtomicLongArray pendingTokens; // bitmask of the players with a token, tokenWords longs per slot
+    private final AtomicLong pendingTimer;
+    private final AtomicLongArray pendingFreezes;
+    private final AtomicIntegerArray pendingScores;
+    private final AtomicIntegerArray dirtySlots;
+    private final AtomicIntegerArray dirtyPlayers;
+    private final AtomicBoolean timerDirty = new AtomicBoolean(false);
+    private final AtomicBoolean dirty = new AtomicBoolean(false);
+    private final int tokenWords;
+
+    /**
+     * The token bitmask of one slot (only used on the event dispatch thread)
+     */
+    private final long[] tokenMask;
+
+    /**
+     * Applies the pending state once per frame
+     */
+    private final Timer frameTimer;
+
+    /**
+     * Passes the key presses to the players
+     */
+    private final InputManager inputManager;
+
+    public UserInterfaceSwing(Logger logger, EventLog events, Config config, Util util, Player[] players) {
 
         this.config = config;
+        this.events = events;
+        tokenWords = (config.players + Long.SIZE - 1) / Long.SIZE;
+        tokenMask = new long[tokenWords];
+        pendingCards = new AtomicIntegerArray(config.tableSize);
+        for (int slot = 0; slot < config.tableSize; slot++)
+            pendingCards.set(slot, EMPTY_SLOT);
+        pendingTokens = new AtomicLongArray(config.tableSize * tokenWords);
+        pendingTimer = new AtomicLong(0);
+        pendingFreezes = new AtomicLongArray(config.players);
+        pendingScores = new AtomicIntegerArray(config.players);
+        dirtySlots = new AtomicIntegerArray(config.tableSize);
+        dirtyPlayers = new AtomicIntegerArray(config.players);
+
         timerPanel = new TimerPanel();
-        gamePanel = new GamePanel();
+        gamePanel = config.activeRendering ? null : new GamePanel(util);
+        gameCanvas = config.activeRendering ? new GameCanvas(util) : null;
         playersPanel = new PlayersPanel();
         winnerPanel = new WinnerPanel();
 
@@ -46,7 +116,7 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
 
         add(timerPanel, gbc);
         gbc.gridy++;
-        add(gamePanel, gbc);
+        add(gamePanel != null ? gamePanel : gameCanvas, gbc);
         gbc.gridy++;
         add(playersPanel, gbc);
         gbc.gridy++;
@@ -63,10 +133,75 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
         setLocationRelativeTo(null);
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 
-        addKeyListener(new InputManager(logger, config, players));
+        inputManager = new InputManager(logger, events, config, players);
+        addKeyListener(inputManager);
         addWindowListener(new WindowManager());
 
-        EventQueue.invokeLater(() -> setVisible(true));
+        frameTimer = new Timer(Math.max(1, 1000 / config.frameRate), e -> applyPending());
+        frameTimer.start();
+
+        EventQueue.invokeLater(() -> {
+            setVisible(true);
+            if (gameCanvas != null)
+                gameCanvas.start();
+        });
+    }
+
+    /**
+     * Applies the changes made since the last frame to the screen (on the event dispatch thread)
+     */
+    private void applyPending() {
+        if (!dirty.getAndSet(false))
+            return;
+        for (int slot = 0; gamePanel != null && slot < config.tableSize; slot++) {
+            int flags = dirtySlots.getAndSet(slot, 0);
+            if ((flags & CARD_DIRTY) != 0) {
+                int card = pendingCards.get(slot);
+                if (card == EMPTY_SLOT)
+                    gamePanel.removeCard(slot);
+                else
+                    gamePanel.placeCard(slot, card);
+            }
+            if ((flags & TOKENS_DIRTY) != 0) {
+                for (int word = 0; word < tokenWords; word++)
+                    tokenMask[word] = pendingTokens.get(slot * tokenWords + word);
+                gamePanel.setTokens(slot, tokenMask);
+            }
+        }
+        if (timerDirty.getAndSet(false)) {
+            long timer = pendingTimer.get();
+            if ((timer & ELAPSED) != 0)
+                timerPanel.setElapsed(timer >> 2);
+            else
+                timerPanel.setCountdown(timer >> 2, (timer & WARN) != 0);
+        }
+        for (int player = 0; player < config.players; player++) {
+            int flags = dirtyPlayers.getAndSet(player, 0);
+            if ((flags & FREEZE_DIRTY) != 0)
+                playersPanel.setFreeze(player, pendingFreezes.get(player));
+            if ((flags & SCORE_DIRTY) != 0)
+                playersPanel.setScore(player, pendingScores.get(player));
+        }
+    }
+
+    private void markSlot(int slot, int flag) {
+        dirtySlots.accumulateAndGet(slot, flag, (flags, added) -> flags | added);
+        dirty.set(true);
+    }
+
+    private void markPlayer(int player, int flag) {
+        dirtyPlayers.accumulateAndGet(player, flag, (flags, added) -> flags | added);
+        dirty.set(true);
+    }
+
+    private void setToken(int player, int slot, boolean token) {
+        int index = slot * tokenWords + player / Long.SIZE;
+        long bit = 1L << (player % Long.SIZE);
+        long current;
+        do {
+            current = pendingTokens.get(index);
+        } while (!pendingTokens.compareAndSet(index, current, token ? current | bit : current & ~bit));
+        markSlot(slot, TOKENS_DIRTY);
     }
 
     private class TimerPanel extends JPanel {
@@ -102,39 +237,27 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
 
     private class GamePanel extends JLayeredPane {
 
-        private final Image emptyCard;
-        private final Image[] deck;
-        private final Image[][] grid;
-        private final boolean[][][] playerTokens;
+        private final CardImages deck;
+        private final int[][] grid; // the card in each cell (EMPTY_SLOT if none)
+        private final long[] tokens; // the token bitmask of each cell, tokenWords longs per cell
+        private final TokenLabels labels;
         private final JLabel[][] tokenText;
 
-        private Image loadImageResource(String filename) {
-            URL imageResource = getClass().getClassLoader().getResource(filename);
-            if (imageResource == null)
-                throw new RuntimeException(new FileNotFoundException(filename));
-            return new ImageIcon(imageResource).getImage();
-        }
-
-        private GamePanel() {
+        private GamePanel(Util util) {
 
             setPreferredSize(new Dimension(config.columns * config.cellWidth, config.rows * config.cellHeight));
 
-            // init deck and load all pictures from png files
-            assert config.featureSize < 10; // otherwise there will be naming conflicts
+            // init deck and load all pictures from png files in the background (or draw them)
+            deck = new CardImages(config, util, events, card -> EventQueue.invokeLater(() -> cardLoaded(card)));
 
-            // load the image resources
-            deck = new Image[config.deckSize];
-            for (int i = 0; i < config.deckSize; ++i)
-                deck[i] = loadImageResource("cards/" + intInBaseToPaddedString(i, config.featureCount, config.featureSize) + ".png");
-            emptyCard = loadImageResource("cards/empty_card.png");
-
-            grid = new Image[config.rows][config.columns];
+            grid = new int[config.rows][config.columns];
             tokenText = new JLabel[config.rows][config.columns];
-            playerTokens = new boolean[config.players][config.rows][config.columns];
+            tokens = new long[config.tableSize * tokenWords];
+            labels = new TokenLabels();
             for (int row = 0; row < config.rows; row++) {
                 for (int column = 0; column < config.columns; column++) {
                     // init the cards on the table grid as empty cards
-                    grid[row][column] = emptyCard;
+                    grid[row][column] = EMPTY_SLOT;
 
                     // init the JLabel selection overlay
                     tokenText[row][column] = new JLabel("");
@@ -149,66 +272,255 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
         }
 
         private void placeCard(int slot, int card) {
-            int row = slot / config.columns;
-            int column = slot % config.columns;
-            grid[row][column] = deck[card];
-            validate();
-            repaint();
+            setCell(slot, card);
         }
 
         private void removeCard(int slot) {
-            int row = slot / config.columns;
-            int column = slot % config.columns;
-            grid[row][column] = emptyCard;
-            validate();
-            repaint();
+            setCell(slot, EMPTY_SLOT);
         }
 
-        private void placeToken(int player, int slot) {
+        /**
+         * Changes the card of a cell and repaints only that cell (the layout does not change, so there is nothing
+         * to validate)
+         */
+        private void setCell(int slot, int card) {
             int row = slot / config.columns;
             int column = slot % config.columns;
-            playerTokens[player][row][column] = true;
-            tokenText[row][column].setText(generatePlayersTokenText(row, column));
+            if (grid[row][column] == card)
+                return;
+            grid[row][column] = card;
+            repaintCell(row, column);
         }
 
-        private void removeTokens() {
-            for (int i = 0; i < config.tableSize; i++)
-                removeTokens(i);
+        /**
+         * Repaints the cells showing the placeholder of a card whose image was just loaded
+         */
+        private void cardLoaded(int card) {
+            for (int row = 0; row < config.rows; row++)
+                for (int column = 0; column < config.columns; column++)
+                    if (grid[row][column] == card)
+                        repaintCell(row, column);
         }
 
-        private void removeTokens(int slot) {
-            int row = slot / config.columns;
-            int column = slot % config.columns;
-            for (int player = 0; player < playerTokens.length; player++) {
-                playerTokens[player][row][column] = false;
-                tokenText[row][column].setText(generatePlayersTokenText(row, column));
-            }
+        private void repaintCell(int row, int column) {
+            repaint(column * config.cellWidth, row * config.cellHeight, config.cellWidth, config.cellHeight);
         }
 
-        private void removeToken(int player, int slot) {
-            int row = slot / config.columns;
-            int column = slot % config.columns;
-            playerTokens[player][row][column] = false;
-            tokenText[row][column].setText(generatePlayersTokenText(row, column));
+        private Image cellImage(int row, int column) {
+            int card = grid[row][column];
+            return card == EMPTY_SLOT ? deck.empty() : deck.get(card);
         }
 
-        private String generatePlayersTokenText(int row, int column) {
-            String text = "";
-            for (int player = 0; player < config.players; player++) {
-                if (playerTokens[player][row][column])
-                    text = text.concat(config.playerNames[player] + ", ");
+        private void setTokens(int slot, long[] mask) {
+            boolean changed = false;
+            for (int word = 0; word < tokenWords; word++) {
+                changed |= tokens[slot * tokenWords + word] != mask[word];
+                tokens[slot * tokenWords + word] = mask[word];
             }
-            if (text.length() < 2)
-                return "";
-            return text.substring(0, text.length() - 2);
+            if (changed)
+                tokenText[slot / config.columns][slot % config.columns].setText(labels.get(mask));
         }
 
+
         @Override
         public void paintComponent(Graphics g) {
-            // draw card images
-            for (int row = 0; row < config.rows; row++)
-                for (int column = 0; column < config.columns; column++)
-                    g.drawImage(grid[row][column], (column * config.cellWidth), (row * config.cellHeight), this);
+            // draw the card images of the cells in the area being repainted
+            Rectangle clip = g.getClipBounds();
+            int firstRow = 0, lastRow = config.rows - 1, firstColumn = 0, lastColumn = config.columns - 1;
+            if (clip != null) {
+                firstRow = Math.max(firstRow, clip.y / config.cellHeight);
+                lastRow = Math.min(lastRow, (clip.y + clip.height - 1) / config.cellHeight);
+                firstColumn = Math.max(firstColumn, clip.x / config.cellWidth);
+                lastColumn = Math.min(lastColumn, (clip.x + clip.width - 1) / config.cellWidth);
+            }
+            for (int row = firstRow; row <= lastRow; row++)
+                for (int column = firstColumn; column <= lastColumn; column++)
+                    g.drawImage(cellImage(row, column), (column * config.cellWidth), (row * config.cellHeight), this);
+        }
+    }
+
+    /**
+     * The table in active rendering mode: a render thread draws the cards and the tokens of the pending state at
+     * most config.frameRate times per second, and logs how many frames it could not draw in time.
+     */
+    private class GameCanvas extends Canvas implements Runnable {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final long REPORT_NANOS = 5_000_000_000L;
+
+        /**
+         * The time to wait for the renderer to finish its frame when the canvas is stopped.
+         */
+        private static final long STOP_MILLIS = 1000;
+
+        private final CardImages deck;
+        private final TokenLabels labels;
+        private final long[] mask;
+        private final Font font;
+        private volatile boolean running;
+        private Thread renderer;
+
+        private GameCanvas(Util util) {
+            setPreferredSize(new Dimension(config.columns * config.cellWidth, config.rows * config.cellHeight));
+            setIgnoreRepaint(true);
+            setFocusable(false); // the key presses go to the frame
+            deck = new CardImages(config, util, events, card -> { }); // a loaded card is drawn in the next frame
+            labels = new TokenLabels();
+            mask = new long[tokenWords];
+            font = UIManager.getFont("Label.font");
+        }
+
+        /**
+         * Starts the render loop (the canvas must be displayable).
+         */
+        private void start() {
+            createBufferStrategy(2);
+            running = true;
+            renderer = new Thread(this, "renderer");
+            renderer.setDaemon(true);
+            renderer.start();
+        }
+
+        /**
+         * Stops the render loop and waits for the frame being drawn, so the frame is not disposed under it.
+         */
+        private void stop() {
+            running = false;
+            if (renderer == null)
+                return;
+            LockSupport.unpark(renderer);
+            try {
+                renderer.join(STOP_MILLIS);
+            } catch (InterruptedException ignored) {
+            }
+        }
+
+        @Override
+        public void run() {
+            BufferStrategy strategy = getBufferStrategy();
+            long period = 1_000_000_000L / config.frameRate;
+            long next = System.nanoTime();
+            long report = next + REPORT_NANOS;
+            long frames = 0, dropped = 0;
+            while (running) {
+                try {
+                    render(strategy);
+                } catch (IllegalStateException e) {
+                    // the canvas lost its peer (the frame is being disposed), the buffer strategy is no longer valid
+                    break;
+                }
+                frames++;
+                next += period;
+                long now = System.nanoTime();
+                if (now > next) {
+                    // the frames whose time passed while this one was drawn are not drawn at all
+                    long missed = (now - next) / period + 1;
+                    dropped += missed;
+                    next += missed * period;
+                }
+                if (now >= report) {
+                    if (dropped > 0)
+                        events.message("renderer dropped " + dropped + " of " + (frames + dropped) + " frames");
+                    frames = dropped = 0;
+                    report = now + REPORT_NANOS;
+                }
+                LockSupport.parkNanos(next - System.nanoTime());
+            }
+        }
+
+        private void render(BufferStrategy strategy) {
+            do {
+                do {
+                    Graphics g = strategy.getDrawGraphics();
+                    try {
+                        draw(g);
+                    } finally {
+                        g.dispose();
+                    }
+                } while (strategy.contentsRestored());
+                strategy.show();
+            } while (strategy.contentsLost());
+            Toolkit.getDefaultToolkit().sync();
+        }
+
+        private void draw(Graphics g) {
+            if (font != null)
+                g.setFont(font);
+            FontMetrics metrics = g.getFontMetrics();
+            for (int slot = 0; slot < config.tableSize; slot++) {
+                int x = (slot % config.columns) * config.cellWidth;
+                int y = (slot / config.columns) * config.cellHeight;
+                int card = pendingCards.get(slot);
+                g.drawImage(card == EMPTY_SLOT ? deck.empty() : deck.get(card), x, y, null);
+                g.setColor(Color.BLACK);
+                g.drawRect(x, y, config.cellWidth - 1, config.cellHeight - 1);
+                for (int word = 0; word < tokenWords; word++)
+                    mask[word] = pendingTokens.get(slot * tokenWords + word);
+                String label = labels.get(mask);
+                if (!label.isEmpty())
+                    g.drawString(label, x + (config.cellWidth - metrics.stringWidth(label)) / 2, y + metrics.getAscent());
+            }
+        }
+    }
+
+    /**
+     * The token labels by token bitmask: an open addressing hash table, so looking up a label that was already built
+     * allocates nothing. The table is cleared when it fills up.
+     */
+    private class TokenLabels {
+
+        private static final int CAPACITY = 1 << 10;
+
+        private final long[] keys = new long[CAPACITY * tokenWords];
+        private final String[] values = new String[CAPACITY];
+        private int size;
+
+        private String get(long[] mask) {
+            int index = hash(mask) & (CAPACITY - 1);
+            while (values[index] != null) {
+                if (matches(index, mask))
+                    return values[index];
+                index = (index + 1) & (CAPACITY - 1);
+            }
+            if (size == CAPACITY / 2) {
+                Arrays.fill(values, null);
+                size = 0;
+                return get(mask);
+            }
+            System.arraycopy(mask, 0, keys, index * tokenWords, tokenWords);
+            values[index] = build(mask);
+            size++;
+            return values[index];
+        }
+
+        private boolean matches(int index, long[] mask) {
+            for (int word = 0; word < tokenWords; word++)
+                if (keys[index * tokenWords + word] != mask[word])
+                    return false;
+            return true;
+        }
+
+        private int hash(long[] mask) {
+            long hash = 0;
+            for (long word : mask)
+                hash = hash * 31 + word;
+            return Long.hashCode(hash * 0x9E3779B97F4A7C15L);
+        }
+
+        /**
+         * @return - the names of the players in the mask, separated by commas.
+         */
+        private String build(long[] mask) {
+            StringBuilder text = new StringBuilder();
+            for (int player = 0; player < config.players; player++) {
+                if ((mask[player / Long.SIZE] & (1L << (player % Long.SIZE))) != 0) {
+                    if (text.length() > 0)
+                        text.append(", ");
+                    text.append(config.playerNames[player]);
+                }
+            }
+            return text.toString();
         }
     }
 
@@ -276,63 +588,81 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
 
     @Override
     public void placeCard(int card, int slot) {
-        gamePanel.placeCard(slot, card);
+        pendingCards.set(slot, card);
+        markSlot(slot, CARD_DIRTY);
     }
 
     @Override
     public void removeCard(int slot) {
-        gamePanel.removeCard(slot);
+        pendingCards.set(slot, EMPTY_SLOT);
+        markSlot(slot, CARD_DIRTY);
     }
 
     @Override
     public void placeToken(int player, int slot) {
-        gamePanel.placeToken(player, slot);
+        setToken(player, slot, true);
     }
 
     @Override
     public void removeTokens() {
-        gamePanel.removeTokens();
+        for (int i = 0; i < config.tableSize; i++)
+            removeTokens(i);
     }
 
     @Override
     public void removeTokens(int slot) {
-        gamePanel.removeTokens(slot);
+        for (int word = 0; word < tokenWords; word++)
+            pendingTokens.set(slot * tokenWords + word, 0);
+        markSlot(slot, TOKENS_DIRTY);
     }
 
     @Override
     public void removeToken(int player, int slot) {
-        gamePanel.removeToken(player, slot);
+        setToken(player, slot, false);
     }
 
     @Override
     public void setCountdown(long millies, boolean warn) {
-        timerPanel.setCountdown(millies, warn);
+        pendingTimer.set((millies << 2) | (warn ? WARN : 0));
+        timerDirty.set(true);
+        dirty.set(true);
     }
 
     @Override
     public void setElapsed(long millies) {
-        timerPanel.setElapsed(millies);
+        pendingTimer.set((millies << 2) | ELAPSED);
+        timerDirty.set(true);
+        dirty.set(true);
     }
 
     @Override
     public void setFreeze(int player, long millies) {
-        playersPanel.setFreeze(player, millies);
+        pendingFreezes.set(player, millies);
+        markPlayer(player, FREEZE_DIRTY);
     }
 
     @Override
     public void setScore(int player, int score) {
-        playersPanel.setScore(player, score);
+        pendingScores.set(player, score);
+        markPlayer(player, SCORE_DIRTY);
     }
 
     @Override
     public void announceWinner(int[] players) {
-        playersPanel.setVisible(false);
-        winnerPanel.announceWinner(players);
-        winnerPanel.setVisible(true);
+        EventQueue.invokeLater(() -> {
+            applyPending();
+            playersPanel.setVisible(false);
+            winnerPanel.announceWinner(players);
+            winnerPanel.setVisible(true);
+        });
     }
 
     @Override
     public void dispose() {
+        frameTimer.stop();
+        inputManager.stop();
+        if (gameCanvas != null)
+            gameCanvas.stop();
         super.dispose();
     }
 }
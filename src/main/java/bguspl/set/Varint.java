@@ -0,0 +1,53 @@
+package bguspl.set;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The variable length ints of the binary formats of the game (the spectator stream and the event journal).
+ * An unsigned int is written 7 bits per byte, low bits first, with the high bit set on all the bytes but the last, so
+ * small numbers take one byte. Signed differences are zigzag encoded first, so small differences of either sign are
+ * small unsigned ints.
+ */
+public final class Varint {
+
+    private Varint() {
+    }
+
+    /**
+     * Writes an unsigned variable length int.
+     */
+    public static void put(ByteBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    /**
+     * Reads an unsigned variable length int.
+     */
+    public static long get(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0)
+                return value;
+        }
+    }
+
+    /**
+     * Maps a signed difference to an unsigned int (small differences of either sign to small ints).
+     */
+    public static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /**
+     * Maps an unsigned int back to the signed difference it encodes.
+     */
+    public static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,18 @@
+package bguspl.set.ex;
+
+/**
+ * This interface decides the key presses of a computer player.
+ * The AI (a thread or a scheduled task) repeatedly asks for the next slot, presses it, and waits nextDelay().
+ */
+interface AiStrategy {
+
+    /**
+     * @return - the slot to press next, or -1 if nothing should be pressed this time.
+     */
+    int nextSlot();
+
+    /**
+     * @return - the number of milliseconds to wait before asking for the next slot.
+     */
+    long nextDelay();
+}
@@ -0,0 +1,112 @@
+package bguspl.set.ex;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class collects the dealer's verdicts on the claimed sets and the latency from claim to verdict.
+ * Recording is allocation free, latencies are kept in a histogram of power-of-two microsecond buckets.
+ */
+public class ClaimStats {
+
+    /**
+     * The number of histogram buckets (bucket i holds latencies below 2^i microseconds)
+     */
+    private static final int BUCKETS = 40;
+
+    private final AtomicLong verdicts = new AtomicLong();
+    private final AtomicLong validSets = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong reshuffles = new AtomicLong();
+    private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+    /**
+     * Records a verdict.
+     * @param latencyNanos - the time from the claim to the verdict.
+     * @param valid        - true iff the claimed set was legal.
+     */
+    void record(long latencyNanos, boolean valid) {
+        verdicts.incrementAndGet();
+        if (valid)
+            validSets.incrementAndGet();
+        totalNanos.addAndGet(latencyNanos);
+        int bucket = Long.SIZE - Long.numberOfLeadingZeros(Math.max(latencyNanos / 1000, 0));
+        histogram.incrementAndGet(Math.min(bucket, BUCKETS - 1));
+    }
+
+    /**
+     * Records a reshuffle of a table that had no legal set (load tests).
+     */
+    void recordReshuffle() {
+        reshuffles.incrementAndGet();
+    }
+
+    /**
+     * @return - a copy of the current counters.
+     */
+    public Sample sample() {
+        long[] buckets = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++)
+            buckets[i] = histogram.get(i);
+        return new Sample(System.nanoTime(), verdicts.get(), validSets.get(), totalNanos.get(), reshuffles.get(),
+                buckets);
+    }
+
+    /**
+     * An immutable copy of the counters, two samples can be subtracted to get the counters of a time window.
+     */
+    public static final class Sample {
+        /**
+         * The time the sample was taken (the length of the window for a difference of samples)
+         */
+        public final long nanoTime;
+        public final long verdicts;
+        public final long validSets;
+        public final long totalNanos;
+        public final long reshuffles;
+        private final long[] buckets;
+
+        private Sample(long nanoTime, long verdicts, long validSets, long totalNanos, long reshuffles, long[] buckets) {
+            this.nanoTime = nanoTime;
+            this.verdicts = verdicts;
+            this.validSets = validSets;
+            this.totalNanos = totalNanos;
+            this.reshuffles = reshuffles;
+            this.buckets = buckets;
+        }
+
+        /**
+         * @return - the counters between an earlier sample and this one.
+         */
+        public Sample minus(Sample earlier) {
+            long[] window = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++)
+                window[i] = buckets[i] - earlier.buckets[i];
+            return new Sample(nanoTime - earlier.nanoTime, verdicts - earlier.verdicts,
+                    validSets - earlier.validSets, totalNanos - earlier.totalNanos, reshuffles - earlier.reshuffles,
+                    window);
+        }
+
+        /**
+         * @return - the mean verdict latency in microseconds.
+         */
+        public long meanMicros() {
+            return verdicts == 0 ? 0 : totalNanos / verdicts / 1000;
+        }
+
+        /**
+         * @param fraction - the percentile as a fraction (e.g. 0.99).
+         * @return - an upper bound of the verdict latency percentile in microseconds.
+         */
+        public long percentileMicros(double fraction) {
+            long rank = (long) Math.ceil(verdicts * fraction);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets[i];
+                if (seen >= rank && seen > 0)
+                    return 1L << i;
+            }
+            return 0;
+        }
+    }
+}
@@ -2,13 +2,20 @@ package bguspl.set.ex;
 
 import bguspl.set.Config;
 import bguspl.set.Env;
+import bguspl.set.ExecutionMode;
+import bguspl.set.GameEvent;
 
 import java.util.List;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.Random;
 
 
@@ -48,6 +55,11 @@ public class Dealer implements Runnable {
      */
     private Thread[] playersThreads;
 
+    /**
+     * The scheduler shared by the players in the actor execution mode (null otherwise)
+     */
+    private ScheduledExecutorService actorScheduler;
+
     /**
      * Queue of the Sets to check
      * this data structure requires synchronization 
@@ -60,10 +72,30 @@ public class Dealer implements Runnable {
     private Semaphore queueSafety;
 
     /**
-     * Array that holds all the freeze time of the players
+     * The service counting down and releasing the players' freezes
+     */
+    private final FreezeService freezeService;
+
+
+    /**
+     * The time (System.nanoTime) each player's pending set was sent to check
      */
-    private long[] freezeArray;
+    private final long[] claimNanos;
 
+    /**
+     * The verdicts and their latency
+     */
+    private final ClaimStats claimStats = new ClaimStats();
+
+    /**
+     * The players that keep pending presses, woken when the table gate opens (a player is listed at most once)
+     */
+    private final ConcurrentLinkedQueue<Player> playersWithPending = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The number of slots currently open for cards (grows past config.dealSize when the table is extended)
+     */
+    private int activeSlots;
 
     /**
      * boolean to reset game timer
@@ -88,7 +120,9 @@ public class Dealer implements Runnable {
         playersThreads = new Thread[players.length];
         setsToCheck = new ArrayBlockingQueue<Set>(players.length);
         queueSafety = new Semaphore(1, true);
-        freezeArray = new long[players.length];
+        freezeService = new FreezeService(env, players);
+        activeSlots = env.config.dealSize;
+        claimNanos = new long[players.length];
     }
 
     /**
@@ -105,24 +139,17 @@ public class Dealer implements Runnable {
     public void run() {
         env.logger.info("Thread " + Thread.currentThread().getName() + " starting.");
         dealer = Thread.currentThread();
-        // Creating the players threads
-        for (int i = 0; i < playersThreads.length; i++) {
-            playersThreads[i] = new Thread(players[i],"player " + i);
-        }
-
-        //Starting the players threads
-        for (int i = 0; i < playersThreads.length; i++) {
-            playersThreads[i].start();
-            try {
-                Thread.sleep(50);
-            } catch (Exception join) {//after each thread and ai created, dealer will get interupt
-            }
-        }
+        freezeService.start();
+        if (env.config.executionMode == ExecutionMode.ACTOR)
+            startActors();
+        else
+            startPlayersThreads();
 
         //main loop of the dealer
         while (!shouldFinish()) {
                 placeCardsOnTable();
                 reshuffleTime = System.currentTimeMillis() + env.config.turnTimeoutMillis;
+                reshuffleIfNoSet();
                 timerLoop();
                 updateTimerDisplay(true);
                 removeAllCardsFromTable();
@@ -133,14 +160,54 @@ public class Dealer implements Runnable {
             for (int i = playersThreads.length - 1; i >= 0; i--) {
                 players[i].terminate();
                 try {
-                    playersThreads[i].join();
+                    if (playersThreads[i] != null)
+                        playersThreads[i].join();
                 } catch (InterruptedException ignore) {
                 }
             }
+        if (actorScheduler != null) {
+            actorScheduler.shutdownNow();
+            try {
+                actorScheduler.awaitTermination(env.config.turnTimeoutMillis > 0 ? env.config.turnTimeoutMillis : 1000, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ignore) {
+            }
+        }
+
+        freezeService.terminate();
 
         env.logger.info("Thread " + Thread.currentThread().getName() + " terminated.");
        }
 
+    /**
+     * Creates and starts a thread for each player
+     */
+    private void startPlayersThreads() {
+        // Creating the players threads
+        for (int i = 0; i < playersThreads.length; i++) {
+            playersThreads[i] = env.config.executionMode.newThread(players[i],"player " + i);
+        }
+
+        //Starting the players threads
+        for (int i = 0; i < playersThreads.length; i++) {
+            playersThreads[i].start();
+            try {
+                Thread.sleep(50);
+            } catch (Exception join) {//after each thread and ai created, dealer will get interupt
+            }
+        }
+    }
+
+    /**
+     * Starts all the players as actors on one shared scheduler
+     */
+    private void startActors() {
+        AtomicInteger count = new AtomicInteger(0);
+        actorScheduler = Executors.newScheduledThreadPool(env.config.actorThreads,
+                r -> new Thread(r, "actor-" + count.getAndIncrement()));
+        for (Player player : players)
+            player.startActor(actorScheduler);
+    }
+
     /**
      * The inner loop of the dealer thread that runs as long as the countdown did not time out.
      */
@@ -177,7 +244,7 @@ public class Dealer implements Runnable {
      * Called when the game should be terminated due to an external event.
      */
     public void terminate() {
-        blockPlayers();
+        table.gate().shutDown();
         terminate = true;
       }
 
@@ -187,23 +254,42 @@ public class Dealer implements Runnable {
      * @return true if the game should be finished.
      */
     private boolean shouldFinish() {
+        if (env.config.loadTest) // the cards of legal sets return to the deck, the game runs until terminated
+            return terminate;
         return terminate || env.util.findSets(deck, 1).size() == 0;
     }
 
     /**
-     * Removes 3 cards from The table
+     * Removes the cards of a set from The table
      */
     private void removeCardsFromTable(int[] toRemove) {
-        table.removeCard(toRemove[0]);
-        table.removeCard(toRemove[1]);
-        table.removeCard(toRemove[2]);
+        for (int slot : toRemove)
+            table.removeCard(slot);
     }
 
     /**
      * Check if any cards can be removed from the deck and placed on the table.
+     * If table extension is enabled and there is no legal set on the table, one more group of slots is opened
+     * (up to config.tableSize) instead of waiting for the reshuffle.
      */
     private void placeCardsOnTable() {
-        for (int i = 0,deckSize=deck.size();i < 12 & deckSize>0; i++) {
+        fillSlots(activeSlots);
+        while (env.config.tableExtension && activeSlots < env.config.tableSize && !deck.isEmpty() && !setOnTable()) {
+            activeSlots = Math.min(activeSlots + env.config.featureSize, env.config.tableSize);
+            fillSlots(activeSlots);
+        }
+        // if (!terminate){
+        //     table.hints();
+        //     System.out.println();}
+        checkToUnblock();
+    }
+
+    /**
+     * Places cards from the deck in the free slots below limit
+     * @param limit - the number of slots to fill.
+     */
+    private void fillSlots(int limit) {
+        for (int i = 0,deckSize=deck.size();i < limit & deckSize>0; i++) {
             if (table.isTheSlotFree(i)) {
                 int next = rand.nextInt(deckSize);
                 //env.logger.info("next randon number:" + next);
@@ -212,10 +298,44 @@ public class Dealer implements Runnable {
                 deckSize--;
             }
         }
-        // if (!terminate){
-        //     table.hints();
-        //     System.out.println();}
-        checkToUnblock();
+    }
+
+    /**
+     * Checks if the cards on the table contain a legal set
+     */
+    private boolean setOnTable() {
+        return env.util.findSets(table.snapshot().cards(), 1).size() > 0;
+    }
+
+    /**
+     * Shrinks an extended table after a set was taken: the cards in the extension slots are moved into the
+     * free slots below them, and no new cards are dealt while config.dealSize cards are still on the table.
+     */
+    private void compactTable() {
+        if (activeSlots <= env.config.dealSize)
+            return;
+        int last = activeSlots - 1;
+        for (int slot = 0; slot < last; slot++) {
+            if (table.isTheSlotFree(slot)) {
+                while (last > slot && table.isTheSlotFree(last))
+                    last--;
+                if (last > slot) {
+                    moveCard(last, slot);
+                    last--;
+                }
+            }
+        }
+        activeSlots = Math.max(env.config.dealSize, table.countCards());
+    }
+
+    /**
+     * Moves a card between two slots, the tokens on it are returned to the players
+     */
+    private void moveCard(int from, int to) {
+        Integer card = table.getCardInSlot(from);
+        clearTokens(from);
+        table.removeCard(from);
+        table.placeCard(card, to);
     }
 
     /**
@@ -236,15 +356,11 @@ public class Dealer implements Runnable {
     }
 
     /**
-     * Unblocking the players according to freezeArray
+     * Unblocking the players if the table is closed, frozen players are kept out by their own freeze state
      */
     private void checkToUnblock() {
-        for (int i = 0; !terminate && i < freezeArray.length; i++) {
-            if (freezeArray[i] <= System.currentTimeMillis()) {
-                players[i].unblockPlayer();
-                freezeArray[i] = 0;
-            }
-        }
+        if (!terminate && !table.gate().isOpen())
+            unblockPlayers();
     }
 
     /**
@@ -269,7 +385,7 @@ public class Dealer implements Runnable {
      */
     private void removeAllCardsFromTable() {
         blockPlayers();
-        for (int i = 0; i < 12 ; i++) {
+        for (int i = 0; i < env.config.tableSize ; i++) {
             Integer card = table.getCardInSlot(i);
             if (card != null) {
                 clearTokens(i);
@@ -277,6 +393,7 @@ public class Dealer implements Runnable {
                 deck.add(card);
             }
         }
+        activeSlots = env.config.dealSize;
         try {
             queueSafety.acquire();
         } catch (InterruptedException ignored) {
@@ -328,9 +445,7 @@ public class Dealer implements Runnable {
      * Blocks the players from accessing the table 
      */
     public void blockPlayers(){
-        for (Player player : players) {
-            player.blockPlayer();
-        }
+        table.gate().close();
     }
 
     /**
@@ -344,30 +459,22 @@ public class Dealer implements Runnable {
 
     /**
      * Unblocks the players from accessing the table
-     * @post - all players tableSafety equals to true
+     * Only the players listed as keeping pending presses are asked to replay them when the table opens.
+     * @post - the table gate is open (unless the game terminated)
      */
     public void unblockPlayers(){
-        for (Player player : players) {
-            player.unblockPlayer();
+        if (table.gate().open()) {
+            Player player;
+            while ((player = playersWithPending.poll()) != null)
+                player.gateOpened();
         }
     }
 
     /**
-     * Blocks player i from accessing the table 
+     * Lists a player that keeps pending presses, to be woken when the table gate opens next
      */
-    public void block_Player(int i){
-        players[i].blockPlayer();
-    }
-
-    /**
-     * Unblocks player i from accessing the table 
-     * 
-     * @param i - index of player to unblock
-     * 
-     * @post - player i tableSafety equals to true
-     */
-    public void unblock_Player(int i){
-        players[i].unblockPlayer();
+    void keepsPendingPresses(Player player) {
+        playersWithPending.offer(player);
     }
 
     /**
@@ -377,10 +484,14 @@ public class Dealer implements Runnable {
      * @post - setsToCheck contains toCheck
      */
     public void addSetToCheck(Set toCheck){
+        // published before the set is queued, so the claim always precedes its verdict on the bus
+        if (env.bus.wants(GameEvent.Type.CLAIM))
+            env.bus.publish(GameEvent.claim(toCheck.getId(), toCheck.slots()));
         try {
             queueSafety.acquire();
         } catch (InterruptedException ignored) {
         }
+        claimNanos[toCheck.getId()] = System.nanoTime();
         setsToCheck.add(toCheck);
         queueSafety.release();
         dealer.interrupt();
@@ -397,16 +508,26 @@ public class Dealer implements Runnable {
         boolean validSetbool = false;
         if (!terminate && !setsToCheck.isEmpty()) {
             Set tmp = setsToCheck.remove();
-            int[] toSend = convertToCards(tmp);
+            int[] toDel = tmp.slots(); // one consistent read of the player's set
+            int[] toSend = convertToCards(toDel);
             queueSafety.release();
+            if (toSend == null){
+                // the set lost a token since it was sent, it is no longer valid for checking
+                players[tmp.getId()].setNoLongerValidforCheck();
+                return false;
+            }
             validSetbool = env.util.testSet(toSend);
+            claimStats.record(System.nanoTime() - claimNanos[tmp.getId()], validSetbool);
+            if (env.bus.wants(GameEvent.Type.VERDICT))
+                env.bus.publish(GameEvent.verdict(tmp.getId(), toDel, toSend, validSetbool));
             if (validSetbool){
-                int[] toDel = convertToArray(tmp);
                 validSet(tmp.getId(), toDel);
+                if (env.config.loadTest)
+                    for (int card : toSend)
+                        deck.add(card);
             }
             else{
                 notValidSet(tmp.getId());
-                //for loger: int[] toDel = convertToArray(tmp);
                 //env.logger.info("player " + (tmp.getId()+1) + " set is Not valid: "+toDel[0]+", "+toDel[1]+", "+toDel[2]);
             }
         }
@@ -415,23 +536,18 @@ public class Dealer implements Runnable {
     }
 
     /**
-     * Converts Set of slots to an array of cards 
-     */
-    private int[] convertToCards(Set tmp){
-        int[] toSend = new int[3];
-        for (int i = 0; i < toSend.length; i++) {
-            toSend[i] = table.getCardInSlot(tmp.getSlot(i));
-        }
-        return toSend;
-    }
-
-    /**
-     * Converts Set of slots to an array of slots 
+     * Converts slots of a Set to an array of cards 
+     * @return - the cards, or null if the set is not complete or one of its slots has no card
      */
-    private int[] convertToArray(Set tmp){
-        int[] toSend = new int[3];
+    private int[] convertToCards(int[] slots){
+        if (slots.length != env.config.featureSize)
+            return null;
+        int[] toSend = new int[slots.length];
         for (int i = 0; i < toSend.length; i++) {
-            toSend[i] = tmp.getSlot(i);
+            Integer card = table.getCardInSlot(slots[i]);
+            if (card == null)
+                return null;
+            toSend[i] = card;
         }
         return toSend;
     }
@@ -447,22 +563,33 @@ public class Dealer implements Runnable {
         } catch (InterruptedException ignored) {
         }
         removeUnvalidTokens(toDel);
+        removeCardsFromTable(toDel);
+        compactTable();
         int setsToCheckSize = setsToCheck.size();
         for (int i = 0; i < setsToCheckSize; i++) {
             Set tmp = setsToCheck.remove();
-            if(tmp.getSize()==3)
+            if(tmp.getSize()==env.config.featureSize)
                 setsToCheck.add(tmp);
-            else{
-                freezeArray[tmp.getId()] = 0;//unblock the player because his set isnt valid for checking
+            else
                 players[tmp.getId()].setNoLongerValidforCheck();//v8
-            }
         }
-        freezeArray[id] = System.currentTimeMillis()+env.config.pointFreezeMillis;
         players[id].point();
-        removeCardsFromTable(toDel);
+        freezeService.freeze(id, env.config.pointFreezeMillis);
         placeCardsOnTable();
         queueSafety.release();
         updateTimerDisplay(true); // reset time after a valid set was found
+        reshuffleIfNoSet();
+    }
+
+    /**
+     * In a load test, ends the turn as soon as there is no legal set on the table: waiting for the turn timeout would
+     * leave the load without sets to claim and skew the throughput
+     */
+    private void reshuffleIfNoSet() {
+        if (env.config.loadTest && !setOnTable()) {
+            reshuffleTime = System.currentTimeMillis();
+            claimStats.recordReshuffle();
+        }
     }
 
     /**
@@ -470,9 +597,8 @@ public class Dealer implements Runnable {
      */
     private void removeUnvalidTokens(int[] toDel){
         for (Player player : players) {
-            player.removeTokensByDealer(toDel[0]);
-            player.removeTokensByDealer(toDel[1]);
-            player.removeTokensByDealer(toDel[2]);
+            for (int slot : toDel)
+                player.removeTokensByDealer(slot);
         }
     }
     
@@ -480,11 +606,18 @@ public class Dealer implements Runnable {
      * notValidSet functions continues the checkSet functions
      */
     private void notValidSet(int id){
-        freezeArray[id] = System.currentTimeMillis()+env.config.penaltyFreezeMillis;
         players[id].penalty();
+        freezeService.freeze(id, env.config.penaltyFreezeMillis);
         checkToUnblock();
     }
 
+    /**
+     * @return - the dealer's verdict statistics.
+     */
+    public ClaimStats getClaimStats(){
+        return claimStats;
+    }
+
     //for tests
     public ArrayBlockingQueue<Set> getsetsToCheck(){
         return setsToCheck;
@@ -0,0 +1,149 @@
+package bguspl.set.ex;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import bguspl.set.Env;
+
+/**
+ * This class owns the freeze deadlines of all the players.
+ * One thread counts down every frozen player: on each tick it updates the freeze display of all the frozen players
+ * (only when the seconds shown change) and releases the players whose freeze is over. The thread parks while no
+ * player is frozen, so frozen players cost nothing but an entry in the deadlines array.
+ */
+public class FreezeService implements Runnable {
+
+    /**
+     * The maximal time between two countdown ticks.
+     */
+    private static final long TICK_MILLIS = 100;
+
+    /**
+     * The value stored for a player that is not frozen.
+     */
+    private static final long NOT_FROZEN = 0;
+
+    /**
+     * The game environment object.
+     */
+    private final Env env;
+
+    /**
+     * The players counted down by the service.
+     */
+    private final Player[] players;
+
+    /**
+     * The time (System.currentTimeMillis) each player's freeze ends, NOT_FROZEN if the player is not frozen.
+     */
+    private final AtomicLongArray deadlines;
+
+    /**
+     * The seconds last shown in each player's freeze display, -1 if nothing is shown (only accessed by the service
+     * thread).
+     */
+    private final long[] shown;
+
+    /**
+     * The thread counting down the freezes.
+     */
+    private Thread thread;
+
+    /**
+     * True iff the service should stop.
+     */
+    private volatile boolean terminate;
+
+    public FreezeService(Env env, Player[] players) {
+        this.env = env;
+        this.players = players;
+        deadlines = new AtomicLongArray(players.length);
+        shown = new long[players.length];
+        Arrays.fill(shown, -1);
+    }
+
+    /**
+     * Starts the countdown thread.
+     */
+    public void start() {
+        thread = new Thread(this, "freeze");
+        thread.start();
+    }
+
+    /**
+     * Stops the countdown thread, players still frozen are not released.
+     */
+    public void terminate() {
+        terminate = true;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    /**
+     * Freezes a player. A freeze of 0 milliseconds releases the player immediately.
+     * @param id     - the id of the player.
+     * @param millis - the length of the freeze.
+     * @post - the player is released by the service after millis milliseconds.
+     */
+    public void freeze(int id, long millis) {
+        if (millis <= 0) {
+            deadlines.set(id, NOT_FROZEN);
+            players[id].endFreeze();
+            return;
+        }
+        deadlines.set(id, System.currentTimeMillis() + millis);
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * The countdown loop: one tick for all the frozen players, then park until the next tick, the nearest deadline
+     * or a new freeze.
+     */
+    @Override
+    public void run() {
+        env.logger.info("Thread " + Thread.currentThread().getName() + " starting.");
+        while (!terminate) {
+            long next = tick();
+            if (next == Long.MAX_VALUE)
+                LockSupport.park(this);
+            else
+                LockSupport.parkNanos(this, Math.max(1, next - System.currentTimeMillis()) * 1000000L);
+        }
+        env.logger.info("Thread " + Thread.currentThread().getName() + " terminated.");
+    }
+
+    /**
+     * Updates the freeze display of the frozen players and releases the players whose freeze is over.
+     * @return - the time of the next tick, Long.MAX_VALUE if no player is frozen.
+     */
+    private long tick() {
+        long now = System.currentTimeMillis();
+        long next = Long.MAX_VALUE;
+        for (int id = 0; id < players.length; id++) {
+            long deadline = deadlines.get(id);
+            if (deadline == NOT_FROZEN)
+                continue;
+            if (deadline <= now) {
+                // a new freeze of the same player may have replaced this one meanwhile
+                if (deadlines.compareAndSet(id, deadline, NOT_FROZEN)) {
+                    if (shown[id] >= 0)
+                        env.ui.setFreeze(id, 0);
+                    shown[id] = -1;
+                    players[id].endFreeze();
+                }
+                continue;
+            }
+            long remaining = deadline - now;
+            if (remaining / 1000 != shown[id]) {
+                shown[id] = remaining / 1000;
+                env.ui.setFreeze(id, remaining);
+            }
+            next = Math.min(next, Math.min(deadline, now + TICK_MILLIS));
+        }
+        return next;
+    }
+}
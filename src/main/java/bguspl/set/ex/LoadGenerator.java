@@ -0,0 +1,173 @@
+package bguspl.set.ex;
+
+import bguspl.set.Env;
+
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This class drives the external players with synthetic key presses to stress test the dealer (headless).
+ * Each player gets key press bursts with exponentially distributed inter-arrival times (a Poisson process); with
+ * probability config.loadValidClaimRatio a burst completes a legal set on the table, otherwise it presses
+ * config.loadBurstSize random slots. The offered rate steps through config.loadPressRates, and the dealer
+ * throughput and verdict latency are reported for each step.
+ */
+public class LoadGenerator implements Runnable {
+
+    /**
+     * The game environment object.
+     */
+    private final Env env;
+
+    /**
+     * Game entities.
+     */
+    private final Dealer dealer;
+    private final Table table;
+    private final Player[] players;
+
+    /**
+     * Seeded random source, so runs with the same configuration offer the same load
+     */
+    private final Random rand;
+
+    /**
+     * The next arrival of each driven player, ordered by time
+     */
+    private final PriorityQueue<Arrival> arrivals;
+
+    /**
+     * A set finding planner for each driven player (null for players that are not driven)
+     */
+    private final SetFindingStrategy[] planners;
+
+    /**
+     * The current offered rate of key presses per player per second
+     */
+    private double pressRate;
+
+    /**
+     * The number of key presses offered in the current step, and the number of them the players queued (the others
+     * were rejected: the player was frozen, blocked or its queue was full)
+     */
+    private long offered;
+    private long accepted;
+
+    private static final class Arrival implements Comparable<Arrival> {
+        final int player;
+        long nanoTime;
+
+        Arrival(int player, long nanoTime) {
+            this.player = player;
+            this.nanoTime = nanoTime;
+        }
+
+        @Override
+        public int compareTo(Arrival other) {
+            return Long.compare(nanoTime, other.nanoTime);
+        }
+    }
+
+    public LoadGenerator(Env env, Dealer dealer, Table table, Player[] players) {
+        this.env = env;
+        this.dealer = dealer;
+        this.table = table;
+        this.players = players;
+        rand = new Random(env.config.loadSeed);
+        arrivals = new PriorityQueue<>();
+        planners = new SetFindingStrategy[players.length];
+        for (int i = env.config.humanPlayers + env.config.computerPlayers; i < players.length; i++)
+            planners[i] = new SetFindingStrategy(env, table, players[i], new Random(rand.nextLong()));
+    }
+
+    /**
+     * Offers the load for config.loadTestMillis, then terminates the dealer.
+     */
+    @Override
+    public void run() {
+        env.logger.info("Thread " + Thread.currentThread().getName() + " starting load generation.");
+        double[] rates = env.config.loadPressRates;
+        long stepNanos = env.config.loadTestMillis * 1_000_000L / rates.length;
+        System.out.println("rate/player/s  offered/s  accepted/s  verdicts/s  sets/s  no-set/s  mean-us  p50-us  p99-us");
+        for (int step = 0; step < rates.length && !Thread.currentThread().isInterrupted(); step++) {
+            pressRate = rates[step];
+            offered = 0;
+            accepted = 0;
+            ClaimStats.Sample start = dealer.getClaimStats().sample();
+            long end = start.nanoTime + stepNanos;
+            schedule(start.nanoTime);
+            generateUntil(end);
+            report(dealer.getClaimStats().sample().minus(start));
+        }
+        dealer.terminate();
+        env.logger.info("Thread " + Thread.currentThread().getName() + " load generation ended.");
+    }
+
+    /**
+     * Draws a first arrival for every driven player
+     */
+    private void schedule(long now) {
+        arrivals.clear();
+        if (pressRate <= 0)
+            return;
+        for (int i = 0; i < planners.length; i++)
+            if (planners[i] != null)
+                arrivals.add(new Arrival(i, now + interArrivalNanos()));
+    }
+
+    private void generateUntil(long end) {
+        while (!Thread.currentThread().isInterrupted()) {
+            Arrival next = arrivals.peek();
+            long wakeup = next == null ? end : Math.min(next.nanoTime, end);
+            long now = System.nanoTime();
+            if (wakeup > now) {
+                LockSupport.parkNanos(wakeup - now);
+                continue;
+            }
+            if (now >= end)
+                return;
+            arrivals.poll();
+            burst(next.player);
+            next.nanoTime += interArrivalNanos();
+            arrivals.add(next);
+        }
+    }
+
+    /**
+     * The time until the next burst of a player, bursts arrive at pressRate / loadBurstSize per second
+     */
+    private long interArrivalNanos() {
+        double burstsPerSecond = pressRate / env.config.loadBurstSize;
+        return (long) (-Math.log(1.0 - rand.nextDouble()) / burstsPerSecond * 1e9);
+    }
+
+    private void burst(int player) {
+        int[] plan = null;
+        if (rand.nextDouble() < env.config.loadValidClaimRatio && players[player].mayPress())
+            plan = planners[player].makePlan(table.snapshot());
+        if (plan != null) {
+            for (int slot : plan)
+                press(player, slot);
+        } else {
+            for (int i = 0; i < env.config.loadBurstSize; i++)
+                press(player, rand.nextInt(env.config.tableSize));
+        }
+    }
+
+    private void press(int player, int slot) {
+        offered++;
+        if (players[player].keyPressed(slot))
+            accepted++;
+    }
+
+    private void report(ClaimStats.Sample window) {
+        double seconds = window.nanoTime / 1e9;
+        String line = String.format("%13.1f  %9.1f  %10.1f  %10.1f  %6.1f  %8.1f  %7d  %6d  %6d", pressRate,
+                offered / seconds, accepted / seconds, window.verdicts / seconds, window.validSets / seconds,
+                window.reshuffles / seconds, window.meanMicros(), window.percentileMicros(0.5),
+                window.percentileMicros(0.99));
+        System.out.println(line);
+        env.logger.severe("load test: " + line.trim());
+    }
+}
@@ -1,6 +1,10 @@
 package bguspl.set.ex;
 
-import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -14,6 +18,17 @@ import bguspl.set.Env;
  */
 public class Player implements Runnable {
 
+    /**
+     * The bits of a pending press that hold its slot, the bits above them hold the table version it was made at.
+     */
+    private static final int SLOT_BITS = 16;
+    private static final long SLOT_MASK = (1L << SLOT_BITS) - 1;
+
+    /**
+     * The value queued in the actions to wake the player thread for a replay of the pending presses.
+     */
+    private static final int REPLAY = -1;
+
     /**
      * The game environment object.
      */
@@ -40,11 +55,27 @@ public class Player implements Runnable {
      */
     private Thread aiThread;
 
+    /**
+     * The actor running the player when it has no thread of its own (null in thread execution modes).
+     */
+    private PlayerActor actor;
+
+    /**
+     * The scheduled key presses of an AI player run as an actor (set on the scheduler, cancelled by the dealer).
+     */
+    private volatile ScheduledFuture<?> aiTask;
+
     /**
      * True iff the player is human (not a computer player).
      */
     private final boolean human;
 
+    /**
+     * True iff the player's input is provided from outside the game (e.g. by the load generator) rather than by a
+     * keyboard or an AI thread of its own.
+     */
+    private final boolean external;
+
     /**
      * True iff game should be terminated due to an external event.
      */
@@ -56,29 +87,38 @@ public class Player implements Runnable {
     private int score;
 
     /**
-     * Set(AtomicIntegerArray) to save slots with token
+     * Set(packed AtomicLong) to save slots with token
      */
     private Set slotsWithToken;
 
     /**
-     * Set(AtomicIntegerArray) to save slots to place token
+     * Queue of the slots pressed by the player, consumed in order by the player thread
+     * this data structure is bounded by config.featureSize (2 * config.featureSize for external players, so a whole
+     * plan of the load generator fits: the tokens to take back and the set)
      */
-    private Set slotsToPress;
+    private ArrayBlockingQueue<Integer> actions;
 
     /**
-     * Atomic boolean to prevent player to access table
+     * Key presses made while the player's set is checked by the dealer, bounded by config.pendingPresses
+     * (null if config.pendingPresses is 0). Each press is kept with the table version it was made at
      */
-    private AtomicBoolean tableSafety;
+    private final ArrayBlockingQueue<Long> pending;
 
     /**
-     * The dealer of the game
+     * True iff the pending presses should be replayed. The dealer and the freeze service only request the replay, it
+     * is done by the player thread (or actor), so the replayed presses are never interleaved with other presses
      */
-    private Dealer dealer;
+    private final AtomicBoolean replayRequested = new AtomicBoolean(false);
+
+    /**
+     * True iff the player is listed by the dealer as keeping pending presses
+     */
+    private final AtomicBoolean listedPending = new AtomicBoolean(false);
 
     /**
-     * Timer of possible freeze
+     * The dealer of the game
      */
-    private long freezTime;
+    private Dealer dealer;
 
     /**
      * Atomic Integer to identify type of freeze
@@ -88,33 +128,11 @@ public class Player implements Runnable {
      */
     private AtomicInteger typeOfFreeze;
 
-    enum threadPlace {
-        Noclass,
-        PlayerClass,
-        TableClass,
-        DealerClass
-    }
-
-    /**
-     * Enum to identify the current loaction and match interupt type to it
-     */
-    private threadPlace place;
-
-    /**
-     * A boolean to identify if the thread was interupted During Table functions
-     */
-    private volatile boolean interuptedDuringTable;
-
     /**
      * A boolean to identify if the thread send his set to check
      */
     private volatile boolean setInCheck;
 
-    /**
-     * A boolean to identify if the player thread is in slotsToPress
-     */
-    private volatile boolean pressSafe;
-
     /**
      * The class constructor.
      *
@@ -130,15 +148,13 @@ public class Player implements Runnable {
         this.table = table;
         this.id = id;
         this.human = human;
+        this.external = !human && id >= env.config.humanPlayers + env.config.computerPlayers;
         this.dealer = dealer;
-        slotsToPress = new Set(id);
-        slotsWithToken = new Set(id);
-        tableSafety = new AtomicBoolean(false);
+        actions = new ArrayBlockingQueue<Integer>(external ? 2 * env.config.featureSize : env.config.featureSize);
+        pending = env.config.pendingPresses > 0 ? new ArrayBlockingQueue<Long>(env.config.pendingPresses) : null;
+        slotsWithToken = new Set(id, env.config.featureSize, env.config.tableSize);
         typeOfFreeze = new AtomicInteger(0);
-        interuptedDuringTable = false;
         setInCheck = false;
-        pressSafe = false;
-        place = threadPlace.Noclass;
     }
 
     /**
@@ -147,36 +163,25 @@ public class Player implements Runnable {
      */
     @Override
     public void run() {
-        place = threadPlace.PlayerClass;
         playerThread = Thread.currentThread();
         env.logger.info("Thread " + Thread.currentThread().getName() + " starting.");
-        if (!human) {
+        if (!human && !external) {
             createArtificialIntelligence();
         }
 
         dealer.interruptDealer();
 
+        // the player thread only wakes up for key presses, freezes are counted down and released by the dealer's
+        // freeze service
         while (!terminate) {
-            if ((!terminate) && (!setInCheck) && Thread.interrupted()) {//v8
-                //env.logger.info("       "+Thread.currentThread().getName() + " in line 155 - Thread.interrupted()");//v8
-                continuerun();
-            }
-            if ((!terminate) && (!setInCheck) && interuptedDuringTable) {//v8
-                //env.logger.info("       "+Thread.currentThread().getName() + " in line 159 - interuptedDuringTable");//v8
-                interuptedDuringTable = false;
-                continuerun();
-            }
-            token();
             try {
-                Thread.sleep(env.config.turnTimeoutMillis);
+                process(actions.take());
             } catch (InterruptedException exc) {
-                //env.logger.info("       "+Thread.currentThread().getName() + " in line 166 - InterruptedException");//v8
-                if (!terminate)
-                    continuerun();
+                // interupt will be only from terminate
             }
         }
 
-        if (!human)
+        if (!human && !external)
             try {
                 aiThread.join();
             } catch (InterruptedException ignored) {
@@ -185,67 +190,74 @@ public class Player implements Runnable {
     }
 
     /**
-     * The missions that the player thread does when interrupted
+     * Starts the player as an actor on a scheduler shared by all the players, instead of a thread of its own.
+     * @param scheduler - the shared scheduler.
      */
-    private void continuerun() {
-        if (Thread.currentThread() == playerThread) {
-            if ((!terminate) && typeOfFreeze.get() == 1) {
-                // reduce point freeze
-                while ((!terminate) && freezTime + env.config.pointFreezeMillis >= System.currentTimeMillis()) {
-                    try {
-                        Thread.sleep(env.config.pointFreezeMillis/5);
-                        point();
-                    } catch (InterruptedException exc3) {
-                        //env.logger.info("       "+Thread.currentThread().getName() + " reduce point freeze - InterruptedException");//v8
-                        // interupt will be only from terminate
-                    }
-                }
-                if (!terminate) {
-                    if(env.config.pointFreezeMillis>0)
-                        env.ui.setFreeze(id, 0);
-                    typeOfFreeze.set(0);
-                    setInCheck = false;
-                }
-            }
-            if ((!terminate) && typeOfFreeze.get() == 2) {
-                // reduce penalty freeze
-                while ((!terminate) && freezTime + env.config.penaltyFreezeMillis >= System.currentTimeMillis()) {
-                    try {
-                        Thread.sleep(env.config.penaltyFreezeMillis/5);
-                        penalty();
-                    } catch (InterruptedException exc4) {
-                        //env.logger.info("       "+Thread.currentThread().getName() + " reduce penalty freeze - InterruptedException");//v8
-                        // interupt will be only from terminate
-                    }
-                }
-                if (!terminate) {
-                    if(env.config.penaltyFreezeMillis>0)
-                        env.ui.setFreeze(id, 0);
-                    typeOfFreeze.set(0);
-                    setInCheck = false;
-                }
-            }
-            if (!terminate)
-                token();
+    public void startActor(ScheduledExecutorService scheduler) {
+        actor = new PlayerActor(this, scheduler);
+        env.logger.info("Actor player " + id + " starting.");
+        if (!human && !external)
+            scheduleArtificialIntelligence(scheduler, createStrategy(), 0);
+    }
+
+    /**
+     * Schedules the next key press of an AI player run as an actor (the scheduled version of the AI thread loop)
+     */
+    private void scheduleArtificialIntelligence(ScheduledExecutorService scheduler, AiStrategy strategy, long delay) {
+        try {
+            aiTask = scheduler.schedule(() -> {
+                if (terminate)
+                    return;
+                int slot = strategy.nextSlot();
+                if (slot >= 0)
+                    keyPressed(slot);
+                if (!terminate)
+                    scheduleArtificialIntelligence(scheduler, strategy, strategy.nextDelay());
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ignored) {
+            // the scheduler is shut down only when the game terminates
         }
     }
 
+    /**
+     * Creates the strategy of a computer player: the first config.smartComputerPlayers computer players look for
+     * sets on the table, the others press random slots.
+     */
+    private AiStrategy createStrategy() {
+        if (id < env.config.humanPlayers + env.config.smartComputerPlayers)
+            return new SetFindingStrategy(env, table, this);
+        return new RandomStrategy(env.config.tableSize);
+    }
+
+    /**
+     * Releases the player from its freeze (called by the freeze service)
+     * The presses kept since a point are discarded, the presses kept before a penalty are replayed once the player may
+     * access the table.
+     */
+    void endFreeze() {
+        if (typeOfFreeze.getAndSet(0) == 1 && pending != null)
+            pending.clear();
+        setInCheck = false;
+        requestReplay();
+    }
+
 
     /**
      * Creates an additional thread for an AI (computer) player. The main loop of
      * this thread repeatedly generates
-     * key presses. If the queue of key presses is full, the thread waits until it
+     * key presses (as decided by the player's strategy). If the queue of key presses is full, the thread waits until it
      * is not full.
      */
     private void createArtificialIntelligence() {
-        // note: this is a very very smart AI (!)
+        AiStrategy strategy = createStrategy();
 
-        aiThread = new Thread(() -> {
+        aiThread = env.config.executionMode.newThread(() -> {
             env.logger.info("Thread " + Thread.currentThread().getName() + " starting.");
-            Random rand = new Random();
             while (!terminate) {//v8
-                    keyPressed(rand.nextInt(12));
-                    sleepAi(3);
+                    int slot = strategy.nextSlot();
+                    if (slot >= 0)
+                        keyPressed(slot);
+                    sleepAi(strategy.nextDelay());
             }
             env.logger.info("Thread " + Thread.currentThread().getName() + " terminated.");
         }, "computer-" + id);
@@ -256,7 +268,7 @@ public class Player implements Runnable {
         }
     }
 
-    private void sleepAi(int time) {
+    private void sleepAi(long time) {
         if (Thread.currentThread() == aiThread & (!terminate)) {
             try {
                 Thread.sleep(time);
@@ -272,63 +284,180 @@ public class Player implements Runnable {
      */
     public void terminate() {
         terminate = true;
+        if (actor != null) {
+            ScheduledFuture<?> task = aiTask;
+            if (task != null)
+                task.cancel(false);
+            actor.terminate();
+            env.logger.info("Actor player " + id + " terminated.");
+            return;
+        }
         playerThread.interrupt();
-        if (!human)
+        if (!human && !external)
             aiThread.interrupt();
     }
 
     /**
      * This method is called when a key is pressed.
-     * @pre - 1 - slotsToPress contains slot
-     * @pre - 2 - slotsToPress does not contains slot
+     * The press is queued for the player thread. Human presses (the input thread), external presses and presses of
+     * actors (the shared scheduler) are dropped when the queue is full, computer presses wait until there is room in
+     * the queue. Presses made while the player's set is checked are kept in the pending presses (if enabled).
      * @param slot - the slot corresponding to the key pressed.
-     * @post - 1 - slotsToPress does not contains slot
-     * @post - 2 - slotsToPress contains slot
-     */
-    public void keyPressed(int slot) {
-        if ((!pressSafe) && tryToAccessTable() && (!setInCheck)) {
-            if (!slotsToPress.removeCardfromSlot(slot)) {
-                if ((!pressSafe) && tryToAccessTable() && (!setInCheck)) {
-                    slotsToPress.addCard(slot);
+     * @return - true iff the press was queued (in the actions or the pending presses).
+     * @post - actions contains slot (if the player may access the table and the queue had room)
+     */
+    public boolean keyPressed(int slot) {
+        if (setInCheck) {
+            if (pending != null && (!terminate) && typeOfFreeze.get() == 0)
+                return keepPending(slot);
+        } else if (tryToAccessTable()) {
+            if (actor != null) {
+                if (actions.offer(slot)) {
+                    actor.schedule();
+                    return true;
                 }
-            }
-
-            if (tryToAccessTable()){//v8 && (!setInCheck)) {
-                if (place != threadPlace.TableClass)
-                    if((!pressSafe) && (!setInCheck))//v8
-                        playerThread.interrupt();
-                else {
-                    if((!pressSafe) && (!setInCheck))//v8
-                        interuptedDuringTable = true;
+            } else if (human || external)
+                return actions.offer(slot);
+            else {
+                try {
+                    actions.put(slot);
+                    return true;
+                } catch (InterruptedException ignored) {
+                    // interupt will be only from terminate
                 }
             }
         }
+        return false;
+    }
+
+    /**
+     * Keeps a press until the dealer's verdict on the player's set
+     * @return - true iff the press was kept (false if the pending presses are full).
+     */
+    private boolean keepPending(int slot) {
+        if (!pending.offer((table.snapshot().version << SLOT_BITS) | slot))
+            return false;
+        listPending();
+        if (!setInCheck)
+            requestReplay(); // the verdict came in meanwhile and its replay request may have found no press
+        return true;
+    }
+
+    /**
+     * Lists the player with the dealer, so the next opening of the table gate wakes it
+     */
+    private void listPending() {
+        if (listedPending.compareAndSet(false, true))
+            dealer.keepsPendingPresses(this);
+    }
+
+    /**
+     * Called by the dealer when the table gate opens and the player is listed as keeping pending presses
+     */
+    void gateOpened() {
+        listedPending.set(false);
+        requestReplay();
     }
 
     /**
-     * The player thread tries(if possible) to place token on table
+     * Asks the player thread (or actor) to replay the pending presses (called whenever the table gate opens or the
+     * player's own state changes). Nothing is queued if there is no pending press, so a replay never takes the room
+     * of a real press in the bounded actions queue
      */
-    public void token() {
-        pressSafe = true;
-        int k = slotsToPress.getSize();
-        for (int i = 0;(!terminate) && (tryToAccessTable()) && (!setInCheck) && i < k; i++) {
-            int tmp = slotsToPress.getSlot(0);
-            slotsToPress.removeCardfromSlot(tmp);
-            place = threadPlace.TableClass;
-            Integer cardInSlot = table.getCardInSlot(tmp);
-            place = threadPlace.PlayerClass;
+    void requestReplay() {
+        if (pending == null || terminate || pending.isEmpty())
+            return;
+        replayRequested.set(true);
+        if (actor != null)
+            actor.schedule();
+        else
+            actions.offer(REPLAY); // if the queue is full, the player thread replays before its next press anyway
+    }
+
+    /**
+     * Presses the pending presses in order if a replay was requested (on the player thread or actor), except the
+     * presses on slots whose card changed after the press was made (the slots the dealer removed, replaced or moved
+     * cards in). The replay stops when the player may not press anymore (e.g. a replayed press completed a set), the
+     * rest of the presses wait for the next replay (and the player is listed again for the next gate opening)
+     */
+    private void replayPending() {
+        if (!replayRequested.get() || !replayRequested.compareAndSet(true, false))
+            return;
+        TableSnapshot view = table.snapshot();
+        Long press;
+        while (mayPress() && (press = pending.poll()) != null) {
+            int slot = (int) (press & SLOT_MASK);
+            if (view.slotVersion(slot) <= (press >>> SLOT_BITS))
+                pressSlot(slot);
+        }
+        if (!pending.isEmpty())
+            listPending();
+    }
+
+    /**
+     * Processes a key press taken from the actions, after the pending presses (which were made before it)
+     * @param slot - the slot pressed (or REPLAY).
+     */
+    private void process(int slot) {
+        replayPending();
+        if (slot == REPLAY)
+            return;
+        if (setInCheck && pending != null && typeOfFreeze.get() == 0)
+            keepPending(slot); // a replayed press sent a set to check
+        else
+            pressSlot(slot);
+    }
+
+    /**
+     * @return - true iff a key press of the player would be accepted now.
+     */
+    boolean mayPress() {
+        return (!terminate) && tryToAccessTable() && (!setInCheck);
+    }
+
+    /**
+     * @return - the slots the player has tokens on.
+     */
+    int[] tokenSlots() {
+        return slotsWithToken.slots();
+    }
+
+    /**
+     * The actor processes the key presses waiting in the actions queue
+     * @param max - the maximal number of presses to process.
+     */
+    void drainActions(int max) {
+        replayPending();
+        Integer slot;
+        for (int i = 0; i < max && (!terminate) && (slot = actions.poll()) != null; i++)
+            process(slot);
+    }
+
+    /**
+     * @return - true iff key presses (or a replay) are waiting for the actor.
+     */
+    boolean hasActions() {
+        return !actions.isEmpty() || replayRequested.get();
+    }
+
+    /**
+     * The player thread tries(if possible) to toggle its token on the slot pressed
+     * @param slot - the slot taken from the actions queue.
+     */
+    private void pressSlot(int slot) {
+        if ((!terminate) && (tryToAccessTable()) && (!setInCheck)) {
+            Integer cardInSlot = table.getCardInSlot(slot);
             if (cardInSlot != null) {
-                if (slotsWithToken.removeCardfromSlot(tmp)) {
-                    removeToken(tmp);
+                if (slotsWithToken.removeCardfromSlot(slot)) {
+                    removeToken(slot);
                 } else {
-                    if (slotsWithToken.addCard(tmp)) {
-                        placeToken(tmp);
+                    if (slotsWithToken.addCard(slot)) {
+                        placeToken(slot);
                         sendSetToCheck();
                     }
                 }
             }
         }
-        pressSafe = false;
     }
 
     /**
@@ -336,7 +465,7 @@ public class Player implements Runnable {
      */
     public void removeTokensByDealer(int slot) {
         if (slotsWithToken.removeCardfromSlot(slot)) {
-            slotsToPress.removeCardfromSlot(slot);
+            actions.removeIf(pressed -> pressed == slot);
             removeToken(slot);
             setInCheck = false;
         }
@@ -346,100 +475,73 @@ public class Player implements Runnable {
      * Send set to dealer to Check
      */
     public void sendSetToCheck() {
-        if (slotsWithToken.getSize() == 3) {
+        if (slotsWithToken.getSize() == env.config.featureSize) {
             //env.logger.info(Thread.currentThread().getName() + " is sending SET");
             setInCheck = true;
             //v8 blockPlayer();
+            if (pending == null)
+                actions.clear();
+            else {
+                // the presses queued after the last token wait for the verdict as well
+                Integer slot;
+                while ((slot = actions.poll()) != null)
+                    keepPending(slot);
+            }
             dealer.addSetToCheck(slotsWithToken);
-            slotsToPress.clear();
         }
     }
 
     public void removeToken(int slot) {
-        place = threadPlace.TableClass;
         //env.logger.info("player " +id+ " REMOVES token in slot " + slot);
         table.removeToken(id, slot);
-        place = threadPlace.PlayerClass;
     }
 
     public void placeToken(int slot) {
-        place = threadPlace.TableClass;
         //env.logger.info("player " +id+ " PLACES token in slot " + slot);
         table.placeToken(id, slot);
-        place = threadPlace.PlayerClass;
-
     }
 
     /**
      * Award a point to a player and perform other related actions.
      *
+     * The freeze itself is counted down by the dealer's freeze service.
+     *
      * @post - the player's score is increased by 1.
      * @post - the player's score is updated in the ui.
      */
     public void point() {
-        if (Thread.currentThread() != playerThread) {
-            score++;
-            freezTime = System.currentTimeMillis();
-            if (env.config.pointFreezeMillis > 0)
-                env.ui.setFreeze(id, env.config.pointFreezeMillis);
-            env.ui.setScore(id, score);
-            typeOfFreeze.set(1);
-            if (place != threadPlace.TableClass)
-                playerThread.interrupt();
-            else {
-                interuptedDuringTable = true;
-            }
-        } else {
-            if (env.config.pointFreezeMillis > 0)
-                env.ui.setFreeze(id, env.config.pointFreezeMillis - System.currentTimeMillis() + freezTime);
-        }
+        score++;
+        env.ui.setScore(id, score);
+        typeOfFreeze.set(1);
+        if (pending != null)
+            pending.clear();
         // int ignored = table.countCards(); // this part is just for demonstration in
         // the unit tests
     }
 
     /**
      * Penalize a player and perform other related actions.
+     * The freeze itself is counted down by the dealer's freeze service.
      */
     public void penalty() {
-        if (Thread.currentThread() != playerThread) {
-            freezTime = System.currentTimeMillis();
-            if (env.config.penaltyFreezeMillis > 0)
-                env.ui.setFreeze(id, env.config.penaltyFreezeMillis);
-            typeOfFreeze.set(2);
-            if (place != threadPlace.TableClass){
-                //env.logger.info("dealer interupts player "+ id + " and his thread is " + playerThread.getState());
-                playerThread.interrupt();
-            }
-            else {
-                interuptedDuringTable = true;
-            }
-        } else {
-            if (env.config.penaltyFreezeMillis > 0)
-                env.ui.setFreeze(id, env.config.penaltyFreezeMillis - System.currentTimeMillis() + freezTime);
-        }
+        typeOfFreeze.set(2);
     }
 
     public int score() {
         return score;
     }
 
-    public void blockPlayer() {
-        tableSafety.set(false);
-        //env.logger.info("Thread " + Thread.currentThread().getName() + " blocked player" + id);
-    }
-
-    public void unblockPlayer() {
-        if(!setInCheck)//v8
-            tableSafety.set(true);
-        //env.logger.info("Thread " + Thread.currentThread().getName() + " unblocked player" + id);
-    }
-
+    /**
+     * @return - true iff the table gate is open and the player is not frozen (its set in check is checked
+     *           separately).
+     */
     public boolean tryToAccessTable() {
-        return tableSafety.get() == true;
+        return table.gate().isOpen() && typeOfFreeze.get() == 0;
     }
 
     public void setNoLongerValidforCheck(){//v8
         setInCheck = false;
+        requestReplay();
     }
 
     // for tests
@@ -448,8 +550,8 @@ public class Player implements Runnable {
     }
 
     // for tests
-    public Set getslotsToPress() {
-        return slotsToPress;
+    public ArrayBlockingQueue<Integer> getActions() {
+        return actions;
     }
 
 }
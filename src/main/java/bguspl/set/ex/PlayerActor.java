@@ -0,0 +1,82 @@
+package bguspl.set.ex;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This class runs a player as an actor: instead of a thread of its own, the player's work is processed on a
+ * scheduler shared by all the players, one batch at a time.
+ * The actor has no mailbox of its own: the only work it has is the key presses in the player's actions queue, so the
+ * actor is just a scheduled flag - whoever adds work to the queue schedules the actor if it is idle. Dealer
+ * block/unblock are read from the table gate when a press is processed, and freezes are counted down and released by
+ * the dealer's freeze service, so neither is an actor event.
+ */
+class PlayerActor implements Runnable {
+
+    /**
+     * The number of key presses processed before the scheduler thread is handed to another actor.
+     */
+    private static final int BATCH_SIZE = 16;
+
+    /**
+     * The player this actor runs.
+     */
+    private final Player player;
+
+    /**
+     * The scheduler shared by all the actors.
+     */
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * True iff the actor is queued on (or running in) the scheduler
+     */
+    private final AtomicBoolean scheduled;
+
+    /**
+     * True iff the actor should stop processing key presses.
+     */
+    private volatile boolean terminate;
+
+    PlayerActor(Player player, ScheduledExecutorService scheduler) {
+        this.player = player;
+        this.scheduler = scheduler;
+        scheduled = new AtomicBoolean(false);
+    }
+
+    /**
+     * Schedules the actor if it is idle (called after work was added to the player's actions).
+     */
+    void schedule() {
+        if ((!terminate) && scheduled.compareAndSet(false, true))
+            execute();
+    }
+
+    /**
+     * Stops processing key presses.
+     */
+    void terminate() {
+        terminate = true;
+    }
+
+    /**
+     * Processes a batch of key presses, the actor is rescheduled if more are waiting.
+     */
+    @Override
+    public void run() {
+        if (!terminate)
+            player.drainActions(BATCH_SIZE);
+        scheduled.set(false);
+        if ((!terminate) && player.hasActions() && scheduled.compareAndSet(false, true))
+            execute();
+    }
+
+    private void execute() {
+        try {
+            scheduler.execute(this);
+        } catch (RejectedExecutionException ignored) {
+            // the scheduler is shut down only when the game terminates
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package bguspl.set.ex;
+
+import java.util.Random;
+
+/**
+ * The original AI: presses a random slot every few milliseconds.
+ */
+class RandomStrategy implements AiStrategy {
+
+    /**
+     * The number of milliseconds between two presses
+     */
+    private static final long PRESS_DELAY_MILLIS = 3;
+
+    /**
+     * The number of slots on the table
+     */
+    private final int tableSize;
+
+    private final Random rand = new Random();
+
+    RandomStrategy(int tableSize) {
+        this.tableSize = tableSize;
+    }
+
+    @Override
+    public int nextSlot() {
+        return rand.nextInt(tableSize);
+    }
+
+    @Override
+    public long nextDelay() {
+        return PRESS_DELAY_MILLIS;
+    }
+}
@@ -1,41 +1,68 @@
 package bguspl.set.ex;
-import java.util.concurrent.atomic.AtomicIntegerArray;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * This class manages the players' slotsWithToken and slotsToPress
+ * This class manages the players' slotsWithToken
+ * The size and the slots are packed into a single long, so every update is one CAS and every read of the whole
+ * set is one load (see snapshot/slots) - other threads never see a torn state.
+ *
+ * word layout: bits 0-3 hold the size, then 'capacity' fields of 'slotBits' bits each hold the slots in order
  *
  * @inv id >= 0
  * @inv size >= 0
- * @inv size <= 3
+ * @inv size <= capacity
  */
 public class Set {
+    /**
+     * bits used by the size field
+     */
+    private static final int SIZE_BITS = 4;
+    private static final long SIZE_MASK = (1L << SIZE_BITS) - 1;
+
     /**
      * player's id
      */
     private int id;
 
     /**
-     * size of valid data in Array
+     * the maximal number of slots in the set
      */
-    private AtomicInteger size;
+    private final int capacity;
 
     /**
-     * Array of slotsWithToken or slotsToPress
+     * bits used by each slot field
      */
-    private AtomicIntegerArray tokens;
+    private final int slotBits;
+    private final long slotMask;
 
     /**
-     * The class constructor.
+     * size and slots packed in one word
+     */
+    private AtomicLong word;
+
+    /**
+     * The class constructor (3 slots on a table of up to 256 slots).
      * @param id     - the id of the player.
      */
     public Set(int id){
-        size = new AtomicInteger(0);
-        tokens = new AtomicIntegerArray(new int[3]);
+        this(id, 3, 256);
+    }
+
+    /**
+     * The class constructor.
+     * @param id        - the id of the player.
+     * @param capacity  - the maximal number of slots in the set.
+     * @param tableSize - the number of slots on the table.
+     */
+    public Set(int id, int capacity, int tableSize){
+        int bits = Math.max(1, 32 - Integer.numberOfLeadingZeros(Math.max(tableSize - 1, 1)));
+        if (capacity < 1 || capacity > SIZE_MASK || SIZE_BITS + capacity * bits > Long.SIZE)
+            throw new IllegalArgumentException("a set of " + capacity + " slots out of " + tableSize + " does not fit in a long");
         this.id = id;
-        tokens.getAndSet(0, -1);
-        tokens.getAndSet(1, -1);
-        tokens.getAndSet(2, -1);
+        this.capacity = capacity;
+        slotBits = bits;
+        slotMask = (1L << bits) - 1;
+        word = new AtomicLong(0);
     }
 
     public int getId(){
@@ -43,73 +70,119 @@ public class Set {
     }
 
     public int getSize(){
-        int tmp =  size.get();
-        return tmp;
+        return sizeOf(word.get());
+    }
+
+    public int getCapacity(){
+        return capacity;
     }
 
     /**
      * add 'newvalue' to tokens if possible
      */
     public boolean addCard(int newvalue) {
-        boolean result = false;
-        int tmpSize;
-        if (size.get() < 3) {
-            tokens.getAndSet(size.get(), newvalue);
-            do{
-                tmpSize = size.get();
-            }while(!size.compareAndSet(tmpSize, tmpSize+1));
-            result = true;
-        }
-        return result;
+        if (newvalue < 0 || newvalue > slotMask)
+            return false;
+        long current;
+        int size;
+        do{
+            current = word.get();
+            size = sizeOf(current);
+            if (size >= capacity)
+                return false;
+        }while(!word.compareAndSet(current, withSize(current | ((long) newvalue << shift(size)), size + 1)));
+        return true;
     }
 
+    /**
+     * Returns slot at index, or -1 if index is out of the set
+     */
     public int getSlot(int index){
-        int tmp = tokens.get(index);
-        return tmp;
+        return slotAt(word.get(), index);
     }
 
     /**
      * Removes 'toRemove' from tokens if exists in it
      */
     public boolean removeCardfromSlot(int toRemove){
-        int index = -1;
-        boolean found = false;
-        while(!found & index<size.get()-1){
-            index++;
-            found = tokens.compareAndSet(index, toRemove, -1);
-        }
-        int last = index+1;
-        while(found & last<size.get()){
-            tokens.getAndSet(index, tokens.get(last));
-            index++;
-            last++;
-        }
-        if(found){
-            int tmpSize;
-            do{
-                tmpSize = size.get();
-            }while(!size.compareAndSet(tmpSize, Max(tmpSize-1,0)));
-        }
-         return found;
+        long current;
+        long next;
+        do{
+            current = word.get();
+            int size = sizeOf(current);
+            int index = indexOf(current, size, toRemove);
+            if (index < 0)
+                return false;
+            // keep the fields below index, and shift the fields above it one field down
+            long below = current & ((1L << shift(index)) - 1) & ~SIZE_MASK;
+            long above = shift(index + 1) < Long.SIZE ? (current >>> shift(index + 1)) << shift(index) : 0;
+            next = withSize(below | above, size - 1);
+        }while(!word.compareAndSet(current, next));
+        return true;
+    }
+
+    /**
+     * @return true iff 'slot' is in the set
+     */
+    public boolean contains(int slot){
+        long current = word.get();
+        return indexOf(current, sizeOf(current), slot) >= 0;
     }
 
     /**
      * Clears Token Array
      */
     public void clear(){
-        tokens.getAndSet(0, -1);
-        tokens.getAndSet(1, -1);
-        tokens.getAndSet(2, -1);
-        int tmpSize;
-        do{
-            tmpSize = size.get();
-        }while(!size.compareAndSet(tmpSize, 0));
+        word.set(0);
+    }
+
+    /**
+     * @return the packed word of the set (an immutable snapshot, decoded with slots(long))
+     */
+    public long snapshot(){
+        return word.get();
+    }
+
+    /**
+     * @return the slots in the set, read with a single load
+     */
+    public int[] slots(){
+        return slots(word.get());
+    }
+
+    /**
+     * @return the slots in a snapshot of the set
+     */
+    public int[] slots(long snapshot){
+        int[] slots = new int[sizeOf(snapshot)];
+        for (int i = 0; i < slots.length; i++)
+            slots[i] = slotAt(snapshot, i);
+        return slots;
+    }
+
+    private static int sizeOf(long word) {
+        return (int) (word & SIZE_MASK);
+    }
+
+    private static long withSize(long word, int size) {
+        return (word & ~SIZE_MASK) | size;
+    }
+
+    private int shift(int index) {
+        return SIZE_BITS + index * slotBits;
+    }
+
+    private int slotAt(long word, int index) {
+        if (index < 0 || index >= sizeOf(word))
+            return -1;
+        return (int) ((word >>> shift(index)) & slotMask);
     }
 
-    private int Max(int a1, int a2) {
-        if (a1 > a2)
-            return a1;
-        return a2;
+    private int indexOf(long word, int size, int slot) {
+        for (int i = 0; i < size; i++)
+            if (((word >>> shift(i)) & slotMask) == slot)
+                return i;
+        return -1;
     }
 
 }
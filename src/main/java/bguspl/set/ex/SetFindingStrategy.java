@@ -0,0 +1,192 @@
+package bguspl.set.ex;
+
+import bguspl.set.Env;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * An AI that looks for a legal set in a snapshot of the table and presses it after a human-like reaction time.
+ * The planned presses are cancelled as soon as the table changes.
+ */
+class SetFindingStrategy implements AiStrategy {
+
+    /**
+     * The number of milliseconds between the presses of a planned set
+     */
+    private static final long KEY_DELAY_MILLIS = 3;
+
+    /**
+     * The number of milliseconds to wait while the player may not press (frozen, blocked or set in check)
+     */
+    private static final long IDLE_DELAY_MILLIS = 10;
+
+    /**
+     * The game environment object.
+     */
+    private final Env env;
+
+    /**
+     * Game entities.
+     */
+    private final Table table;
+    private final Player player;
+
+    private final Random rand;
+
+    /**
+     * The slots to press (null if there is no plan)
+     */
+    private int[] plan;
+
+    /**
+     * The index of the next slot to press in plan
+     */
+    private int planIndex;
+
+    /**
+     * The version of the table snapshot the plan was made for
+     */
+    private long planVersion;
+
+    /**
+     * The delay returned by nextDelay
+     */
+    private long delay;
+
+    /**
+     * Mapping between a card and its slot in the searched snapshot (-1 if none), reused between searches
+     */
+    private final int[] cardToSlot;
+
+    SetFindingStrategy(Env env, Table table, Player player) {
+        this(env, table, player, new Random());
+    }
+
+    SetFindingStrategy(Env env, Table table, Player player, Random rand) {
+        this.env = env;
+        this.rand = rand;
+        this.table = table;
+        this.player = player;
+        cardToSlot = new int[env.config.deckSize];
+        Arrays.fill(cardToSlot, -1);
+    }
+
+    @Override
+    public int nextSlot() {
+        if (!player.mayPress()) {
+            plan = null;
+            delay = IDLE_DELAY_MILLIS;
+            return -1;
+        }
+        TableSnapshot view = table.snapshot();
+        if (plan != null && view.version != planVersion)
+            plan = null; // the table changed - cancel the planned moves
+        if (plan == null) {
+            // look at the table, and react after a while (or look again after a while if there is nothing to do)
+            plan = makePlan(view);
+            planVersion = view.version;
+            planIndex = 0;
+            delay = reactionTime();
+            return -1;
+        }
+        int slot = plan[planIndex++];
+        if (planIndex == plan.length)
+            plan = null;
+        delay = KEY_DELAY_MILLIS;
+        return slot;
+    }
+
+    @Override
+    public long nextDelay() {
+        return delay;
+    }
+
+    /**
+     * Draws a reaction time from a normal distribution (config.aiReactionMillis, config.aiReactionJitterMillis)
+     */
+    private long reactionTime() {
+        return Math.max(0, Math.round(env.config.aiReactionMillis + env.config.aiReactionJitterMillis * rand.nextGaussian()));
+    }
+
+    /**
+     * Plans the presses that turn the player's tokens into a legal set: first removing the tokens that are not
+     * part of the set, then placing the missing ones.
+     * @return - the slots to press, or null if there is no set on the table.
+     */
+    int[] makePlan(TableSnapshot view) {
+        int[] set = findSet(view);
+        if (set == null)
+            return null;
+        int[] tokens = player.tokenSlots();
+        int[] presses = new int[tokens.length + set.length];
+        int count = 0;
+        for (int token : tokens)
+            if (!contains(set, token))
+                presses[count++] = token;
+        for (int slot : set)
+            if (!contains(tokens, slot))
+                presses[count++] = slot;
+        return count == 0 ? null : Arrays.copyOf(presses, count);
+    }
+
+    private static boolean contains(int[] array, int value) {
+        for (int element : array)
+            if (element == value)
+                return true;
+        return false;
+    }
+
+    /**
+     * Finds a legal set on the table, picked at random among all the sets on it.
+     * With 3 choices per feature the third card of a set is determined by the other two, so the search only
+     * looks at the pairs of cards. Other feature sizes fall back to Util.findSets.
+     * @return - the slots of the set, or null if there is none.
+     */
+    private int[] findSet(TableSnapshot view) {
+        if (env.config.featureSize != 3) {
+            List<int[]> sets = env.util.findSets(view.cards(), 1);
+            if (sets.isEmpty())
+                return null;
+            return Arrays.stream(sets.get(0)).map(view::slotOf).toArray();
+        }
+
+        int[] slots = new int[view.size()];
+        int cards = 0;
+        for (int slot = 0; slot < view.size(); slot++) {
+            int card = view.cardInSlot(slot);
+            if (card != TableSnapshot.NO_CARD) {
+                cardToSlot[card] = slot;
+                slots[cards++] = slot;
+            }
+        }
+
+        int[] result = null;
+        int found = 0;
+        for (int i = 0; i < cards; i++) {
+            for (int j = i + 1; j < cards; j++) {
+                int third = cardToSlot[thirdCard(view.cardInSlot(slots[i]), view.cardInSlot(slots[j]))];
+                if (third > slots[j] && rand.nextInt(++found) == 0) // each set is counted once, pick one uniformly
+                    result = new int[]{slots[i], slots[j], third};
+            }
+        }
+
+        for (int i = 0; i < cards; i++)
+            cardToSlot[view.cardInSlot(slots[i])] = -1;
+        return result;
+    }
+
+    /**
+     * @return - the card that completes a legal set with cards a and b (3 choices per feature).
+     */
+    private int thirdCard(int a, int b) {
+        int card = 0;
+        for (int feature = 0, weight = 1; feature < env.config.featureCount; feature++, weight *= 3) {
+            card += ((6 - a % 3 - b % 3) % 3) * weight;
+            a /= 3;
+            b /= 3;
+        }
+        return card;
+    }
+}
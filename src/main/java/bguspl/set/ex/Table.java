@@ -4,9 +4,10 @@ import bguspl.set.Env;
 
 import java.util.Arrays;
 import java.util.List;
-import java.util.Objects;
 import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * This class contains the data that is visible to the player.
@@ -35,6 +36,27 @@ public class Table {
      */
     Semaphore tokenSemaphore = new Semaphore(1,true);
 
+    /**
+     * The latest published view of the table, replaced (never mutated) on every card change
+     */
+    private volatile TableSnapshot snapshot;
+
+    /**
+     * The gate through which the dealer blocks and unblocks all the players at once
+     */
+    private final TableGate gate = new TableGate();
+
+    /**
+     * The user interface updates of the table changes, queued while holding tokenSemaphore (so in the order of the
+     * changes) and run after it is released, so the user interface and the event bus never hold up the table
+     */
+    private final ConcurrentLinkedQueue<Runnable> updates = new ConcurrentLinkedQueue<>();
+
+    /**
+     * True iff a thread is running the queued updates
+     */
+    private final AtomicBoolean updating = new AtomicBoolean(false);
+
   
     /**
      * Constructor for testing.
@@ -48,6 +70,7 @@ public class Table {
         this.env = env;
         this.slotToCard = slotToCard;
         this.cardToSlot = cardToSlot;
+        this.snapshot = new TableSnapshot(0, slotToCard, null);
     }
 
     /**
@@ -64,15 +87,54 @@ public class Table {
      * This method prints all possible legal sets of cards that are currently on the table.
      */
     public void hints() {
-        List<Integer> deck = Arrays.stream(slotToCard).filter(Objects::nonNull).collect(Collectors.toList());
-        env.util.findSets(deck, Integer.MAX_VALUE).forEach(set -> {
+        TableSnapshot view = snapshot;
+        env.util.findSets(view.cards(), Integer.MAX_VALUE).forEach(set -> {
             StringBuilder sb = new StringBuilder().append("Hint: Set found: ");
-            List<Integer> slots = Arrays.stream(set).mapToObj(card -> cardToSlot[card]).sorted().collect(Collectors.toList());
+            List<Integer> slots = Arrays.stream(set).mapToObj(view::slotOf).sorted().collect(Collectors.toList());
             int[][] features = env.util.cardsToFeatures(set);
             System.out.println(sb.append("slots: ").append(slots).append(" features: ").append(Arrays.deepToString(features)));
         });
     }
 
+    /**
+     * Returns a coherent view of the cards on the table without acquiring the table semaphore.
+     *
+     * @return - the latest published snapshot of the table.
+     */
+    public TableSnapshot snapshot() {
+        return snapshot;
+    }
+
+    /**
+     * @return - the gate of the table.
+     */
+    public TableGate gate() {
+        return gate;
+    }
+
+    /**
+     * Publishes a new snapshot of the table, must be called while holding tokenSemaphore.
+     */
+    private void publishSnapshot() {
+        snapshot = new TableSnapshot(snapshot.version + 1, slotToCard, snapshot);
+    }
+
+    /**
+     * Runs the queued user interface updates in order, one thread at a time: a thread that finds another one running
+     * them leaves its own updates to that thread (which checks the queue again before it stops).
+     */
+    private void runUpdates() {
+        while (!updates.isEmpty() && updating.compareAndSet(false, true)) {
+            try {
+                Runnable update;
+                while ((update = updates.poll()) != null)
+                    update.run();
+            } finally {
+                updating.set(false);
+            }
+        }
+    }
+
     /**
      * Count the number of cards currently on the table.
      *
@@ -109,9 +171,11 @@ public class Table {
 
         cardToSlot[card] = slot;
         slotToCard[slot] = card;
+        publishSnapshot();
 
-        env.ui.placeCard(card, slot);
+        updates.add(() -> env.ui.placeCard(card, slot));
         tokenSemaphore.release();
+        runUpdates();
     }
 
 
@@ -130,9 +194,11 @@ public class Table {
         Integer card = slotToCard[slot];
         slotToCard[slot] = null;
         cardToSlot[card] = null;
-        env.ui.removeCard(slot);
+        publishSnapshot();
+        updates.add(() -> env.ui.removeCard(slot));
 
         tokenSemaphore.release();
+        runUpdates();
     }
 
     /**
@@ -146,10 +212,10 @@ public class Table {
         } catch (InterruptedException ignored) {
         }
         
-        env.ui.placeToken(player, slot);
+        updates.add(() -> env.ui.placeToken(player, slot));
 
         tokenSemaphore.release();
-
+        runUpdates();
     }
 
     /**
@@ -164,9 +230,10 @@ public class Table {
         } catch (InterruptedException ignored) {
         }
 
-        env.ui.removeToken(player, slot);
+        updates.add(() -> env.ui.removeToken(player, slot));
 
         tokenSemaphore.release();
+        runUpdates();
 
         return true;
     }
@@ -0,0 +1,53 @@
+package bguspl.set.ex;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class manages the players' access to the table as a whole.
+ * The dealer blocks and unblocks all the players at once by flipping one state word, instead of one flag per
+ * player. Whether a single player may access the table is the gate state combined with the player's own state
+ * (its freeze and its set in check), which are read by the player and never written by the gate.
+ *
+ * states: CLOSED -> OPEN -> CLOSED ... and SHUT_DOWN (from any state, never opens again). The transitions are
+ * compare-and-sets, so opening a gate that was shut down in the meantime fails.
+ */
+public class TableGate {
+
+    private static final int CLOSED = 0;
+    private static final int OPEN = 1;
+    private static final int SHUT_DOWN = 2;
+
+    /**
+     * The gate state (closed until the dealer first opens the gate)
+     */
+    private final AtomicInteger state = new AtomicInteger(CLOSED);
+
+    /**
+     * @return - true iff the players may access the table (subject to their own state).
+     */
+    public boolean isOpen() {
+        return state.get() == OPEN;
+    }
+
+    /**
+     * Opens the gate for all the players, unless it was shut down.
+     * @return - true iff the gate was closed and is now open.
+     */
+    public boolean open() {
+        return state.compareAndSet(CLOSED, OPEN);
+    }
+
+    /**
+     * Closes the gate for all the players.
+     */
+    public void close() {
+        state.compareAndSet(OPEN, CLOSED);
+    }
+
+    /**
+     * Closes the gate for good (when the game terminates).
+     */
+    public void shutDown() {
+        state.set(SHUT_DOWN);
+    }
+}
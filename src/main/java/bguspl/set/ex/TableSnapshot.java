@@ -0,0 +1,122 @@
+package bguspl.set.ex;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An immutable view of the cards on the table.
+ * The table publishes a new snapshot every time a card is placed or removed (copy-on-write), so readers get a
+ * coherent board with a single volatile read and never contend with the dealer.
+ *
+ * @inv version >= 0
+ */
+public final class TableSnapshot {
+
+    /**
+     * The value stored for an empty slot.
+     */
+    public static final int NO_CARD = -1;
+
+    /**
+     * The epoch of the table this snapshot was taken at (incremented on every card placement or removal).
+     */
+    public final long version;
+
+    /**
+     * Mapping between a slot and the card placed in it (NO_CARD if none).
+     */
+    private final int[] slotToCard;
+
+    /**
+     * The version at which the card in each slot last changed.
+     */
+    private final long[] slotVersions;
+
+    /**
+     * The number of cards on the table.
+     */
+    private final int cards;
+
+    /**
+     * @param version    - the epoch of the table.
+     * @param slotToCard - mapping between a slot and the card placed in it (null if none).
+     * @param previous   - the previous snapshot of the table (null if none).
+     */
+    TableSnapshot(long version, Integer[] slotToCard, TableSnapshot previous) {
+        this.version = version;
+        this.slotToCard = new int[slotToCard.length];
+        slotVersions = new long[slotToCard.length];
+        int count = 0;
+        for (int slot = 0; slot < slotToCard.length; slot++) {
+            if (slotToCard[slot] != null) {
+                this.slotToCard[slot] = slotToCard[slot];
+                count++;
+            } else
+                this.slotToCard[slot] = NO_CARD;
+            if (previous != null && previous.cardInSlot(slot) == this.slotToCard[slot])
+                slotVersions[slot] = previous.slotVersions[slot];
+            else
+                slotVersions[slot] = version;
+        }
+        cards = count;
+    }
+
+    /**
+     * @return - the number of slots on the table.
+     */
+    public int size() {
+        return slotToCard.length;
+    }
+
+    /**
+     * @return - the number of cards on the table.
+     */
+    public int countCards() {
+        return cards;
+    }
+
+    /**
+     * Returns card in slot
+     * @param slot - the slot that contains the card.
+     * @return     - the card id, or NO_CARD if the slot is empty.
+     */
+    public int cardInSlot(int slot) {
+        if (slot < 0 || slot >= slotToCard.length)
+            return NO_CARD;
+        return slotToCard[slot];
+    }
+
+    /**
+     * Returns the version at which the card in a slot last changed
+     * @param slot - the slot.
+     * @return     - the version, or -1 if the slot is not on the table.
+     */
+    public long slotVersion(int slot) {
+        if (slot < 0 || slot >= slotVersions.length)
+            return -1;
+        return slotVersions[slot];
+    }
+
+    /**
+     * Returns the slot of a card
+     * @param card - the card id.
+     * @return     - the slot of the card, or -1 if the card is not on the table.
+     */
+    public int slotOf(int card) {
+        for (int slot = 0; slot < slotToCard.length; slot++)
+            if (slotToCard[slot] == card)
+                return slot;
+        return -1;
+    }
+
+    /**
+     * @return - the cards on the table, ordered by slot.
+     */
+    public List<Integer> cards() {
+        List<Integer> result = new ArrayList<>(cards);
+        for (int card : slotToCard)
+            if (card != NO_CARD)
+                result.add(card);
+        return result;
+    }
+}
@@ -0,0 +1,71 @@
+package bguspl.set.net;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+
+/**
+ * Memory fences for data shared with other processes through a memory mapped file.
+ * Plain buffer reads and writes may be reordered by the compiler and the processor, and a plain read in a loop may
+ * even be read once, so the order is kept by explicit fences. On Java 9 and up these are the fences of VarHandle.
+ * Java 8 has no public fences, so there the game still uses the loadFence and storeFence of sun.misc.Unsafe at run
+ * time. Both are looked up by reflection (like the virtual threads of ExecutionMode), so Unsafe is only avoided at
+ * compile time: the game compiles for Java 8 with no internal API warning. The method handles are constants the JIT
+ * compiler inlines.
+ */
+final class Fences {
+
+    private static final MethodHandle LOAD_FENCE;
+    private static final MethodHandle STORE_FENCE;
+
+    static {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        MethodType fence = MethodType.methodType(void.class);
+        MethodHandle load;
+        MethodHandle store;
+        try {
+            Class<?> varHandle = Class.forName("java.lang.invoke.VarHandle");
+            load = lookup.findStatic(varHandle, "acquireFence", fence);
+            store = lookup.findStatic(varHandle, "releaseFence", fence);
+        } catch (ReflectiveOperationException java8) {
+            try {
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                Field field = unsafeClass.getDeclaredField("theUnsafe");
+                field.setAccessible(true);
+                Object unsafe = field.get(null);
+                load = lookup.findVirtual(unsafeClass, "loadFence", fence).bindTo(unsafe);
+                store = lookup.findVirtual(unsafeClass, "storeFence", fence).bindTo(unsafe);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+        LOAD_FENCE = load;
+        STORE_FENCE = store;
+    }
+
+    private Fences() {
+    }
+
+    /**
+     * Reads before the fence are not reordered with reads and writes after it (acquire).
+     */
+    static void load() {
+        try {
+            LOAD_FENCE.invokeExact();
+        } catch (Throwable e) {
+            throw new AssertionError(e); // the fences throw nothing
+        }
+    }
+
+    /**
+     * Writes before the fence are not reordered with writes after it (release for the data written before).
+     */
+    static void store() {
+        try {
+            STORE_FENCE.invokeExact();
+        } catch (Throwable e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package bguspl.set.net;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Random;
+
+/**
+ * A load test client of the player server, run over localhost.
+ * Opens many connections from one thread with one selector: the first connections play any free external players and
+ * press random slots at a fixed rate, the rest only watch. Reports the number of frames received per second and the
+ * time from a press to the token update of the press.
+ *
+ * Usage: LoadClient port [connections=100] [players=4] [presses per player per second=10] [seconds=10]
+ */
+public class LoadClient {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * A connection to the server.
+     */
+    private static final class Connection {
+        final SocketChannel channel;
+        final ByteBuffer input = ByteBuffer.allocate(BUFFER_SIZE);
+        final ByteBuffer output = ByteBuffer.allocate(BUFFER_SIZE);
+        int player = Protocol.NONE;
+        int tableSize;
+        long nextPress;
+
+        /**
+         * The time of the last press of each slot (0 if the update of the press was received).
+         */
+        long[] pressed = new long[0];
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    private final Selector selector;
+    private final Connection[] connections;
+    private final long pressNanos;
+    private final Random rand = new Random(1);
+
+    /**
+     * The statistics of the run.
+     */
+    private long frames, presses, updates, totalLatency, maxLatency;
+    private int welcomed, rejected, closed, failed;
+
+    private LoadClient(int port, int count, int players, double pressRate) throws IOException {
+        selector = Selector.open();
+        connections = new Connection[count];
+        pressNanos = pressRate > 0 ? (long) (1_000_000_000L / pressRate) : Long.MAX_VALUE;
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+        for (int i = 0; i < count; i++) {
+            SocketChannel channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            Connection connection = new Connection(channel);
+            connections[i] = connection;
+            channel.register(selector, channel.connect(address) ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, connection);
+            Protocol.put(connection.output, Protocol.HELLO, i < players ? Protocol.ANY_PLAYER : Protocol.SPECTATOR, 0);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("usage: LoadClient port [connections] [players] [presses per player per second] [seconds]");
+            return;
+        }
+        int port = Integer.parseInt(args[0]);
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int players = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        double pressRate = args.length > 3 ? Double.parseDouble(args[3]) : 10;
+        long seconds = args.length > 4 ? Long.parseLong(args[4]) : 10;
+
+        LoadClient client = new LoadClient(port, count, players, pressRate);
+        long start = System.nanoTime();
+        client.run(start + seconds * 1_000_000_000L);
+        client.report(System.nanoTime() - start);
+    }
+
+    private void run(long end) throws IOException {
+        for (Connection connection : connections)
+            flush(connection);
+        long now;
+        while ((now = System.nanoTime()) < end && closed + failed < connections.length) {
+            selector.select(1);
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                Connection connection = (Connection) key.attachment();
+                if (key.isValid() && key.isConnectable())
+                    connect(connection, key);
+                if (key.isValid() && key.isReadable())
+                    read(connection);
+                if (key.isValid() && key.isWritable())
+                    flush(connection);
+            }
+            now = System.nanoTime();
+            for (Connection connection : connections)
+                if (connection.player >= 0 && now >= connection.nextPress) {
+                    press(connection, now);
+                    connection.nextPress = now + pressNanos;
+                }
+        }
+        for (Connection connection : connections)
+            connection.channel.close();
+        selector.close();
+    }
+
+    private void connect(Connection connection, SelectionKey key) {
+        try {
+            connection.channel.finishConnect();
+            key.interestOps(SelectionKey.OP_READ);
+            flush(connection);
+        } catch (IOException e) {
+            close(connection, false);
+        }
+    }
+
+    private void read(Connection connection) {
+        int count;
+        try {
+            count = connection.channel.read(connection.input);
+        } catch (IOException e) {
+            close(connection, false);
+            return;
+        }
+        if (count < 0) {
+            close(connection, true);
+            return;
+        }
+        ByteBuffer input = connection.input;
+        input.flip();
+        long now = System.nanoTime();
+        while (input.remaining() >= Protocol.FRAME_SIZE) {
+            receive(connection, input.get(), input.getInt(), input.getInt(), now);
+            frames++;
+        }
+        input.compact();
+    }
+
+    private void receive(Connection connection, byte type, int first, int second, long now) {
+        switch (type) {
+            case Protocol.WELCOME:
+                welcomed++;
+                connection.player = first;
+                connection.tableSize = second;
+                connection.pressed = new long[second];
+                connection.nextPress = now + (long) (rand.nextDouble() * Math.min(pressNanos, 1_000_000_000L));
+                break;
+            case Protocol.REJECT:
+                rejected++;
+                break;
+            case Protocol.TOKEN:
+            case Protocol.TOKEN_REMOVED:
+                if (connection.player >= 0 && first == connection.player && second >= 0 && connection.pressed[second] != 0) {
+                    long latency = now - connection.pressed[second];
+                    connection.pressed[second] = 0;
+                    updates++;
+                    totalLatency += latency;
+                    maxLatency = Math.max(maxLatency, latency);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void press(Connection connection, long now) {
+        int slot = rand.nextInt(connection.tableSize);
+        if (connection.output.remaining() < Protocol.FRAME_SIZE)
+            return;
+        Protocol.put(connection.output, Protocol.PRESS, slot, 0);
+        connection.pressed[slot] = now;
+        presses++;
+        flush(connection);
+    }
+
+    private void flush(Connection connection) {
+        SelectionKey key = connection.channel.keyFor(selector);
+        if (key == null || !key.isValid() || !connection.channel.isConnected())
+            return;
+        ByteBuffer output = connection.output;
+        output.flip();
+        try {
+            connection.channel.write(output);
+        } catch (IOException e) {
+            close(connection, false);
+            return;
+        } finally {
+            output.compact();
+        }
+        key.interestOps(output.position() > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+    }
+
+    /**
+     * Closes a connection.
+     * @param byServer - true iff the server closed the connection (false if it failed on the client side).
+     */
+    private void close(Connection connection, boolean byServer) {
+        if (!connection.channel.isOpen())
+            return;
+        if (byServer)
+            closed++;
+        else
+            failed++;
+        connection.player = Protocol.NONE;
+        try {
+            connection.channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void report(long nanos) {
+        double seconds = nanos / 1e9;
+        System.out.printf("connections: %d, welcomed: %d, rejected: %d, closed by the server: %d, failed: %d%n",
+                connections.length, welcomed, rejected, closed, failed);
+        System.out.printf("frames received: %d (%.0f per second)%n", frames, frames / seconds);
+        System.out.printf("presses sent: %d (%.0f per second), token updates: %d%n", presses, presses / seconds, updates);
+        if (updates > 0)
+            System.out.printf("press to token update latency: mean %.2f ms, max %.2f ms%n",
+                    totalLatency / 1e6 / updates, maxLatency / 1e6);
+    }
+}
@@ -0,0 +1,474 @@
+package bguspl.set.net;
+
+import bguspl.set.Config;
+import bguspl.set.EventBus;
+import bguspl.set.GameEvent;
+import bguspl.set.ex.Player;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+/**
+ * This class lets clients play the external players (and watch the game) over a loopback TCP connection.
+ * All the connections are served by one thread with one selector, in the binary protocol of the Protocol class.
+ * The server subscribes to the updates of the game on the event bus, so the game threads only publish them: the
+ * updates are written to an outbox (by the server's bus thread, under a short lock, together with a mirror of the
+ * state for clients that join later) and the server thread copies the outbox to the output buffers of the clients.
+ * A client whose output buffer is full is disconnected, so a slow client never holds the game back.
+ */
+public class PlayerServer implements EventBus.Subscriber, Runnable {
+
+    /**
+     * The size of the server's buffer on the bus. The mirror of the state cannot miss an update, so if the buffer
+     * is ever full the subscription is cancelled (and logged) rather than the clients being sent a wrong state.
+     */
+    private static final int BUFFER_EVENTS = 1 << 16;
+
+    /**
+     * The initial size of the outbox and of the input buffer of a client.
+     */
+    private static final int OUTBOX_SIZE = 16 * 1024;
+    private static final int INPUT_SIZE = 64 * Protocol.FRAME_SIZE;
+
+    /**
+     * The smallest output buffer of a client.
+     */
+    private static final int MIN_OUTPUT_SIZE = 64 * 1024;
+
+    /**
+     * The player id of a client that did not say hello yet.
+     */
+    private static final int UNKNOWN = Integer.MIN_VALUE;
+
+    private final Logger logger;
+    private final Config config;
+    private final Player[] players;
+
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final Thread thread;
+    private volatile boolean closed;
+
+    /**
+     * The ids of the first and the last + 1 external players (the players clients may play).
+     */
+    private final int firstExternal;
+    private final int endExternal;
+
+    /**
+     * The size of the output buffer of a client (twice the size of the full state).
+     */
+    private final int outputSize;
+
+    /**
+     * Guards the outbox and the mirror of the state.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+    private ByteBuffer outbox = ByteBuffer.allocate(OUTBOX_SIZE);
+
+    /**
+     * True iff the selector was woken up and has not returned from select since (so the bus thread does not wake it
+     * up again, a wakeup is a system call).
+     */
+    private final AtomicBoolean wakeupPending = new AtomicBoolean(false);
+
+    /**
+     * The mirror of the state: the card in each slot, the players with a token in each slot, the scores and the
+     * freezes.
+     */
+    private final int[] cards;
+    private final BitSet[] tokens;
+    private final int[] scores;
+    private final long[] freezes;
+
+    /**
+     * The following fields are only accessed by the server thread.
+     * The connected clients, the clients that joined and still have to get the state, the client playing each
+     * player, and the updates being copied to the clients.
+     */
+    private final List<Client> clients = new ArrayList<>();
+    private final List<Client> joining = new ArrayList<>();
+    private final Client[] playedBy;
+    private ByteBuffer batch = ByteBuffer.allocate(OUTBOX_SIZE);
+
+    /**
+     * A connected client.
+     */
+    private final class Client {
+        final SocketChannel channel;
+        final SelectionKey key;
+        final ByteBuffer input = ByteBuffer.allocate(INPUT_SIZE);
+        final ByteBuffer output = ByteBuffer.allocate(outputSize);
+        int player = UNKNOWN;
+
+        Client(SocketChannel channel) throws ClosedChannelException {
+            this.channel = channel;
+            key = channel.register(selector, SelectionKey.OP_READ, this);
+        }
+    }
+
+    /**
+     * Opens the server socket (the clients are served once the server is started).
+     * @param logger  - the game logger.
+     * @param config  - the game configuration.
+     * @param players - the players (filled before the server is started).
+     * @throws IOException - if the server socket cannot be opened.
+     */
+    public PlayerServer(Logger logger, Config config, Player[] players) throws IOException {
+        this.logger = logger;
+        this.config = config;
+        this.players = players;
+        firstExternal = config.humanPlayers + config.computerPlayers;
+        endExternal = config.players;
+        cards = new int[config.tableSize];
+        Arrays.fill(cards, Protocol.NONE);
+        tokens = new BitSet[config.tableSize];
+        Arrays.setAll(tokens, slot -> new BitSet(config.players));
+        scores = new int[config.players];
+        freezes = new long[config.players];
+        playedBy = new Client[config.players];
+        batch.limit(0);
+        int stateFrames = 1 + config.tableSize * (config.players + 1) + 2 * config.players;
+        outputSize = Math.max(MIN_OUTPUT_SIZE, 2 * stateFrames * Protocol.FRAME_SIZE);
+
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        try {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), config.serverPort), config.serverMaxClients);
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            server.close();
+            selector.close();
+            throw e;
+        }
+        thread = new Thread(this, "player-server");
+        thread.setDaemon(true);
+    }
+
+    /**
+     * Subscribes the server to the updates of the game.
+     * @return - the subscription.
+     */
+    public EventBus.Subscription subscribe(EventBus bus) {
+        return bus.subscribe("player-server", EnumSet.of(GameEvent.Type.CARD_PLACED, GameEvent.Type.CARD_REMOVED,
+                GameEvent.Type.TOKEN_PLACED, GameEvent.Type.TOKEN_REMOVED, GameEvent.Type.TOKENS_REMOVED,
+                GameEvent.Type.FREEZE, GameEvent.Type.SCORE, GameEvent.Type.WINNER), BUFFER_EVENTS,
+                EventBus.Backpressure.CANCEL, this);
+    }
+
+    /**
+     * Starts serving the clients.
+     */
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * Stops serving the clients and closes all the connections.
+     */
+    public void close() {
+        closed = true;
+        selector.wakeup();
+        try {
+            thread.join();
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    /**
+     * The server loop.
+     */
+    @Override
+    public void run() {
+        logger.info("thread " + Thread.currentThread().getName() + " starting.");
+        logger.severe("player server listening on " + server.socket().getLocalSocketAddress());
+        try {
+            while (!closed) {
+                selector.select();
+                wakeupPending.set(false); // the updates posted from here on wake the selector again
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid())
+                        continue;
+                    if (key.isAcceptable())
+                        accept();
+                    else {
+                        Client client = (Client) key.attachment();
+                        if (key.isReadable())
+                            read(client);
+                        if (key.isValid() && key.isWritable())
+                            write(client);
+                    }
+                }
+                sendUpdates();
+            }
+        } catch (IOException e) {
+            logger.severe("player server failed: " + e);
+        } finally {
+            for (Client client : new ArrayList<>(clients))
+                disconnect(client, null);
+            try {
+                server.close();
+                selector.close();
+            } catch (IOException ignored) {
+            }
+        }
+        logger.info("thread " + Thread.currentThread().getName() + " terminated.");
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            if (clients.size() >= config.serverMaxClients) {
+                channel.close();
+                continue;
+            }
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            clients.add(new Client(channel));
+        }
+    }
+
+    private void read(Client client) {
+        int count;
+        try {
+            count = client.channel.read(client.input);
+        } catch (IOException e) {
+            count = -1;
+        }
+        if (count < 0) {
+            disconnect(client, null);
+            return;
+        }
+        ByteBuffer input = client.input;
+        input.flip();
+        while (input.remaining() >= Protocol.FRAME_SIZE && client.key.isValid())
+            receive(client, input.get(), input.getInt(), input.getInt());
+        input.compact();
+    }
+
+    private void receive(Client client, byte type, int first, int second) {
+        if (type == Protocol.PRESS && client.player >= 0) {
+            if (first >= 0 && first < config.tableSize)
+                players[client.player].keyPressed(first);
+        } else if (type == Protocol.HELLO && client.player == UNKNOWN) {
+            int player = bind(first);
+            if (player == UNKNOWN) {
+                Protocol.put(client.output, Protocol.REJECT, first, 0);
+                write(client);
+                disconnect(client, null);
+                return;
+            }
+            client.player = player;
+            if (player >= 0)
+                playedBy[player] = client;
+            Protocol.put(client.output, Protocol.WELCOME, player, config.tableSize);
+            joining.add(client);
+        } else if (type != Protocol.PRESS)
+            disconnect(client, "protocol error (frame type " + type + ")");
+    }
+
+    /**
+     * @return - the player id a client that asked for a player gets (UNKNOWN if it cannot get it).
+     */
+    private int bind(int requested) {
+        if (requested == Protocol.SPECTATOR)
+            return Protocol.SPECTATOR;
+        if (requested == Protocol.ANY_PLAYER) {
+            for (int id = firstExternal; id < endExternal; id++)
+                if (playedBy[id] == null)
+                    return id;
+            return UNKNOWN;
+        }
+        return requested >= firstExternal && requested < endExternal && playedBy[requested] == null ? requested : UNKNOWN;
+    }
+
+    /**
+     * Copies the outbox to the clients, and the state to the clients that joined.
+     */
+    private void sendUpdates() {
+        lock.lock();
+        try {
+            if (outbox.position() > 0) {
+                outbox.flip();
+                if (batch.capacity() < outbox.remaining())
+                    batch = ByteBuffer.allocate(outbox.capacity());
+                batch.clear();
+                batch.put(outbox);
+                batch.flip();
+                outbox.clear();
+            }
+            for (Client client : joining)
+                if (client.key.isValid())
+                    putState(client.output);
+        } finally {
+            lock.unlock();
+        }
+
+        if (batch.hasRemaining()) {
+            for (int i = clients.size() - 1; i >= 0; i--) {
+                Client client = clients.get(i);
+                if (client.player == UNKNOWN || joining.contains(client))
+                    continue; // the state the joining clients got already has these updates
+                if (client.output.remaining() < batch.remaining()) {
+                    disconnect(client, "too slow");
+                    continue;
+                }
+                client.output.put(batch.duplicate());
+            }
+            batch.position(batch.limit());
+        }
+        joining.clear();
+
+        for (int i = clients.size() - 1; i >= 0; i--) {
+            Client client = clients.get(i);
+            if (client.output.position() > 0 && (client.key.interestOps() & SelectionKey.OP_WRITE) == 0)
+                write(client);
+        }
+    }
+
+    /**
+     * Writes as much of a client's output as the socket takes, and waits for the socket to take the rest.
+     */
+    private void write(Client client) {
+        ByteBuffer output = client.output;
+        output.flip();
+        try {
+            client.channel.write(output);
+        } catch (IOException e) {
+            output.clear();
+            disconnect(client, null);
+            return;
+        }
+        output.compact();
+        if (client.key.isValid())
+            client.key.interestOps(output.position() > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+    }
+
+    private void disconnect(Client client, String reason) {
+        if (reason != null)
+            logger.severe("disconnecting player server client " + describe(client) + ": " + reason);
+        clients.remove(client);
+        if (client.player >= 0 && playedBy[client.player] == client)
+            playedBy[client.player] = null;
+        client.key.cancel();
+        try {
+            client.channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static String describe(Client client) {
+        return client.player >= 0 ? "of player " + (client.player + 1) : "(spectator)";
+    }
+
+    /**
+     * Writes the mirror of the state, must hold the lock.
+     */
+    private void putState(ByteBuffer output) {
+        for (int slot = 0; slot < cards.length; slot++) {
+            Protocol.put(output, Protocol.CARD, slot, cards[slot]);
+            for (int player = tokens[slot].nextSetBit(0); player >= 0; player = tokens[slot].nextSetBit(player + 1))
+                Protocol.put(output, Protocol.TOKEN, player, slot);
+        }
+        for (int player = 0; player < scores.length; player++) {
+            Protocol.put(output, Protocol.SCORE, player, scores[player]);
+            Protocol.put(output, Protocol.FREEZE, player, (int) freezes[player]);
+        }
+    }
+
+    /**
+     * Wakes the selector up to send the posted updates, unless it was woken up already.
+     */
+    private void wakeup() {
+        if (!wakeupPending.get() && wakeupPending.compareAndSet(false, true))
+            selector.wakeup();
+    }
+
+    /**
+     * Adds an update to the outbox, must hold the lock.
+     */
+    private void post(byte type, int first, int second) {
+        if (outbox.remaining() < Protocol.FRAME_SIZE) {
+            ByteBuffer larger = ByteBuffer.allocate(outbox.capacity() * 2);
+            outbox.flip();
+            larger.put(outbox);
+            outbox = larger;
+        }
+        Protocol.put(outbox, type, first, second);
+    }
+
+    /**
+     * Posts an update of the game (called on the server's bus thread).
+     */
+    @Override
+    public void onEvent(GameEvent event) {
+        lock.lock();
+        try {
+            switch (event.type) {
+                case CARD_PLACED:
+                    cards[event.slot] = event.card;
+                    post(Protocol.CARD, event.slot, event.card);
+                    break;
+                case CARD_REMOVED:
+                    cards[event.slot] = Protocol.NONE;
+                    post(Protocol.CARD, event.slot, Protocol.NONE);
+                    break;
+                case TOKEN_PLACED:
+                    tokens[event.slot].set(event.player);
+                    post(Protocol.TOKEN, event.player, event.slot);
+                    break;
+                case TOKEN_REMOVED:
+                    tokens[event.slot].clear(event.player);
+                    post(Protocol.TOKEN_REMOVED, event.player, event.slot);
+                    break;
+                case TOKENS_REMOVED:
+                    if (event.slot == GameEvent.NONE) {
+                        for (BitSet slot : tokens)
+                            slot.clear();
+                        post(Protocol.TOKEN_REMOVED, Protocol.ALL, Protocol.ALL);
+                    } else {
+                        tokens[event.slot].clear();
+                        post(Protocol.TOKEN_REMOVED, Protocol.ALL, event.slot);
+                    }
+                    break;
+                case FREEZE:
+                    freezes[event.player] = event.value;
+                    post(Protocol.FREEZE, event.player, (int) event.value);
+                    break;
+                case SCORE:
+                    scores[event.player] = (int) event.value;
+                    post(Protocol.SCORE, event.player, (int) event.value);
+                    break;
+                case WINNER:
+                    post(Protocol.WINNER, event.player, 0);
+                    break;
+                default:
+                    return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        wakeup();
+    }
+}
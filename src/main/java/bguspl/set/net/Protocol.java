@@ -0,0 +1,64 @@
+package bguspl.set.net;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The binary protocol of the player server.
+ * Every frame has the same size: a type byte followed by two big endian int arguments (unused arguments are 0).
+ * A client starts with HELLO and is answered with WELCOME (followed by the current state of the table, the scores
+ * and the freezes, and from then on by every update) or with REJECT (and the connection is closed).
+ */
+public final class Protocol {
+
+    /**
+     * The size of a frame in bytes.
+     */
+    public static final int FRAME_SIZE = 9;
+
+    /**
+     * Client frames.
+     * HELLO  - the player id to play (ANY_PLAYER for any free external player, SPECTATOR to only watch).
+     * PRESS  - the slot pressed.
+     */
+    public static final byte HELLO = 1;
+    public static final byte PRESS = 2;
+
+    /**
+     * Server frames.
+     * WELCOME       - the player id played (or SPECTATOR), the table size.
+     * REJECT        - the player id that was requested.
+     * CARD          - the slot, the card placed in it (NONE if the card was removed).
+     * TOKEN         - the player, the slot the player placed a token on.
+     * TOKEN_REMOVED - the player (ALL for all players), the slot (ALL for all slots).
+     * SCORE         - the player, the score.
+     * FREEZE        - the player, the freeze time left in milliseconds (0 when the freeze is over).
+     * WINNER        - a winner (one frame per winner, at the end of the game).
+     */
+    public static final byte WELCOME = 16;
+    public static final byte REJECT = 17;
+    public static final byte CARD = 18;
+    public static final byte TOKEN = 19;
+    public static final byte TOKEN_REMOVED = 20;
+    public static final byte SCORE = 21;
+    public static final byte FREEZE = 22;
+    public static final byte WINNER = 23;
+
+    /**
+     * Special argument values.
+     */
+    public static final int ANY_PLAYER = -1;
+    public static final int SPECTATOR = -2;
+    public static final int ALL = -1;
+    public static final int NONE = -1;
+
+    private Protocol() {
+    }
+
+    /**
+     * Writes a frame to a buffer.
+     * @pre - buffer.remaining() >= FRAME_SIZE
+     */
+    public static void put(ByteBuffer buffer, byte type, int first, int second) {
+        buffer.put(type).putInt(first).putInt(second);
+    }
+}
@@ -0,0 +1,239 @@
+package bguspl.set.net;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * A set finding bot that plays an external player through the shared memory file of a running game (see
+ * SharedMemoryChannel), to be run as a separate process.
+ * The bot reads table snapshots in a loop, presses the slots of a legal set when it finds one, and measures the time
+ * from writing the presses to the game reading them from the ring (the latency of the channel), and to seeing the
+ * game take them in a snapshot (a token, a freeze or a new score: the round trip through the game, which includes
+ * the game's own waits, e.g. while the dealer places cards). Reports the presses, the latencies, the snapshots that
+ * had to be read again, and its score.
+ *
+ * Usage: SharedMemoryBot file [bot=0] [seconds=10]
+ */
+public class SharedMemoryBot {
+
+    /**
+     * The time the bot waits for the verdict on its set before it takes its tokens back.
+     */
+    private static final long TOKEN_TIMEOUT_NANOS = 100_000_000L;
+
+    /**
+     * The time the bot waits for the game to read its presses from the ring.
+     */
+    private static final long PICKUP_TIMEOUT_NANOS = 10_000_000L;
+
+    private final MappedByteBuffer buffer;
+    private final SharedMemoryLayout layout;
+    private final int bot;
+    private final int player;
+
+    /**
+     * The last snapshot: the cards, the slots with a token of the bot, the bot's freeze and score.
+     */
+    private final int[] cards;
+    private final boolean[] mine;
+    private long freeze;
+    private int score;
+
+    /**
+     * The number of presses written to the ring (only the bot writes its ring).
+     */
+    private long head;
+
+    /**
+     * The statistics of the run.
+     */
+    private long snapshots, retries, presses, dropped, roundTrips, totalNanos, maxNanos, timeouts;
+    private long pickups, totalPickupNanos, maxPickupNanos;
+
+    private SharedMemoryBot(String file, int bot) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+        }
+        buffer.order(ByteOrder.nativeOrder());
+        layout = SharedMemoryLayout.read(buffer);
+        if (bot < 0 || bot >= layout.bots)
+            throw new IllegalArgumentException("bot " + bot + " is not one of the " + layout.bots + " bots of the game");
+        this.bot = bot;
+        player = layout.firstBot + bot;
+        head = buffer.getLong(layout.head(bot));
+        cards = new int[layout.tableSize];
+        mine = new boolean[layout.tableSize];
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("usage: SharedMemoryBot file [bot] [seconds]");
+            return;
+        }
+        int bot = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+        long seconds = args.length > 2 ? Long.parseLong(args[2]) : 10;
+        SharedMemoryBot client = new SharedMemoryBot(args[0], bot);
+        client.run(System.nanoTime() + seconds * 1_000_000_000L);
+        client.report();
+    }
+
+    private void run(long end) {
+        int[] set = new int[layout.featureSize];
+        long pressed = 0;
+        boolean measuring = false;
+        int pressScore = 0;
+        while (System.nanoTime() < end && buffer.getInt(SharedMemoryLayout.STATE_OFFSET) == SharedMemoryLayout.RUNNING) {
+            readTable();
+            int tokens = 0;
+            for (boolean token : mine)
+                if (token) tokens++;
+
+            if (measuring && (tokens > 0 || freeze > 0 || score != pressScore)) {
+                long nanos = System.nanoTime() - pressed;
+                roundTrips++;
+                totalNanos += nanos;
+                maxNanos = Math.max(maxNanos, nanos);
+                measuring = false;
+            }
+            if (freeze > 0)
+                pressed = 0; // the dealer checked the set
+            else if (pressed != 0) {
+                if (System.nanoTime() - pressed > TOKEN_TIMEOUT_NANOS) {
+                    takeBackTokens(); // no verdict (e.g. the presses were dropped while the dealer replaced cards)
+                    pressed = 0;
+                    measuring = false;
+                }
+            } else if (tokens > 0)
+                takeBackTokens(); // tokens left after the cards under the others were replaced
+            else if (findSet(set, 0, 0)) {
+                pressed = System.nanoTime();
+                measuring = true;
+                pressScore = score;
+                for (int slot : set)
+                    press(slot);
+                awaitPickup();
+            }
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Waits until the game read all the presses from the ring, and measures the time it took.
+     */
+    private void awaitPickup() {
+        long start = System.nanoTime();
+        long nanos;
+        do {
+            nanos = System.nanoTime() - start;
+            if (buffer.getLong(layout.tail(bot)) >= head) {
+                pickups++;
+                totalPickupNanos += nanos;
+                maxPickupNanos = Math.max(maxPickupNanos, nanos);
+                return;
+            }
+            Fences.load();
+            Thread.yield();
+        } while (nanos < PICKUP_TIMEOUT_NANOS);
+    }
+
+    private void takeBackTokens() {
+        timeouts++;
+        for (int slot = 0; slot < mine.length; slot++)
+            if (mine[slot]) press(slot);
+    }
+
+    /**
+     * Reads a consistent snapshot of the table (again while the game writes it).
+     */
+    private void readTable() {
+        while (true) {
+            long sequence = buffer.getLong(SharedMemoryLayout.SEQUENCE_OFFSET);
+            Fences.load(); // the table is read after the sequence number
+            if ((sequence & 1) == 0) {
+                int word = player >>> 6;
+                long bit = 1L << (player & 63);
+                for (int slot = 0; slot < cards.length; slot++) {
+                    cards[slot] = buffer.getInt(layout.card(slot));
+                    mine[slot] = (buffer.getLong(layout.tokens(slot, word)) & bit) != 0;
+                }
+                freeze = buffer.getLong(layout.freeze(player));
+                score = buffer.getInt(layout.score(player));
+                Fences.load(); // the table is read before the sequence number is read again
+                if (buffer.getLong(SharedMemoryLayout.SEQUENCE_OFFSET) == sequence) {
+                    snapshots++;
+                    return;
+                }
+            }
+            retries++;
+        }
+    }
+
+    /**
+     * Writes a press to the ring (dropped if the ring is full).
+     */
+    private void press(int slot) {
+        long tail = buffer.getLong(layout.tail(bot));
+        Fences.load();
+        if (head - tail >= layout.ringCapacity) {
+            dropped++;
+            return;
+        }
+        buffer.putInt(layout.slot(bot, head), slot);
+        Fences.store(); // the slot is written before the head publishes it
+        buffer.putLong(layout.head(bot), ++head);
+        presses++;
+    }
+
+    /**
+     * Looks for a legal set among the cards on the table (the slots from 'from' on fill set[count..]).
+     */
+    private boolean findSet(int[] set, int count, int from) {
+        if (count == set.length)
+            return isLegal(set);
+        for (int slot = from; slot < cards.length; slot++)
+            if (cards[slot] >= 0) {
+                set[count] = slot;
+                if (findSet(set, count + 1, slot + 1))
+                    return true;
+            }
+        return false;
+    }
+
+    /**
+     * @return - true iff every feature of the cards in the slots is the same on all of them or different on all of
+     *           them.
+     */
+    private boolean isLegal(int[] set) {
+        boolean[] seen = new boolean[layout.featureSize];
+        for (int feature = 0, scale = 1; feature < layout.featureCount; feature++, scale *= layout.featureSize) {
+            Arrays.fill(seen, false);
+            int distinct = 0;
+            for (int slot : set) {
+                int value = cards[slot] / scale % layout.featureSize;
+                if (!seen[value]) {
+                    seen[value] = true;
+                    distinct++;
+                }
+            }
+            if (distinct != 1 && distinct != set.length)
+                return false;
+        }
+        return true;
+    }
+
+    private void report() {
+        System.out.printf("bot %d (player %d): score %d%n", bot, player + 1, score);
+        System.out.printf("snapshots: %d, read again: %d%n", snapshots, retries);
+        System.out.printf("presses: %d, dropped (ring full): %d, tokens taken back: %d%n", presses, dropped, timeouts);
+        if (pickups > 0)
+            System.out.printf("press to pickup by the game: %d, mean %.1f us, max %.1f us%n",
+                    pickups, totalPickupNanos / 1e3 / pickups, maxPickupNanos / 1e3);
+        if (roundTrips > 0)
+            System.out.printf("press to game round trip: %d, mean %.1f us, max %.1f us%n",
+                    roundTrips, totalNanos / 1e3 / roundTrips, maxNanos / 1e3);
+    }
+}
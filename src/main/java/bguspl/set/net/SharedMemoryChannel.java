@@ -0,0 +1,245 @@
+package bguspl.set.net;
+
+import bguspl.set.Config;
+import bguspl.set.EventBus;
+import bguspl.set.GameEvent;
+import bguspl.set.ex.Player;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.EnumSet;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+/**
+ * This class lets bots in other processes play the external players through a memory mapped file (see
+ * SharedMemoryLayout), with no system call per press or update.
+ * The channel subscribes to the updates of the game on the event bus, and keeps the table in the file: its bus threads
+ * write it under a lock (so there is one writer at a time) and a seqlock, so the bots read a
+ * consistent snapshot without a lock (a bot reads the sequence number, the table and the sequence number again, and
+ * reads again if the numbers differ or are odd). Each bot writes its presses to a single producer ring, and a poller
+ * thread passes them to Player.keyPressed: it spins while presses arrive (microsecond latency) and parks when the
+ * rings are idle. The order of the reads and writes of the shared memory is kept by explicit fences (see Fences).
+ */
+public class SharedMemoryChannel implements EventBus.Subscriber, Runnable {
+
+    /**
+     * The number of presses each ring holds.
+     */
+    private static final int RING_CAPACITY = 256;
+
+    /**
+     * The time the poller spins after the last press, and the time it parks when the rings are idle.
+     */
+    private static final long SPIN_NANOS = 2_000_000L;
+    private static final long PARK_NANOS = 100_000L;
+
+    /**
+     * The sizes of the channel's buffers on the bus. The table cannot miss an update, so if its buffer is ever full
+     * the subscription is cancelled (and logged) rather than the bots reading a wrong table. Only the last countdown
+     * matters, so the countdown has a small buffer of its own that drops the oldest values.
+     */
+    private static final int BUFFER_EVENTS = 1 << 16;
+    private static final int COUNTDOWN_EVENTS = 16;
+
+    private final Logger logger;
+    private final Player[] players;
+
+    private final File file;
+    private final SharedMemoryLayout layout;
+    private final MappedByteBuffer buffer;
+    private final Thread poller;
+    private volatile boolean closed;
+
+    /**
+     * Serializes the writers of the table.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * The number of presses passed to the players (only accessed by the poller).
+     */
+    private long presses;
+
+    /**
+     * Creates the shared memory file (the bots are served once the channel is started).
+     * @param logger  - the game logger.
+     * @param config  - the game configuration.
+     * @param players - the players (filled before the channel is started).
+     * @throws IOException - if the file cannot be created or mapped.
+     */
+    public SharedMemoryChannel(Logger logger, Config config, Player[] players) throws IOException {
+        this.logger = logger;
+        this.players = players;
+        file = new File(config.sharedMemoryFile);
+        layout = new SharedMemoryLayout(config.tableSize, config.players, config.humanPlayers + config.computerPlayers,
+                config.externalPlayers, RING_CAPACITY, config.featureSize, config.featureCount);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(0); // a new file is all zeros
+            raf.setLength(layout.size);
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, layout.size); // stays valid after close
+        }
+        buffer.order(ByteOrder.nativeOrder());
+        for (int slot = 0; slot < layout.tableSize; slot++)
+            buffer.putInt(layout.card(slot), -1);
+        layout.write(buffer);
+        poller = new Thread(this, "shared-memory-poller");
+        poller.setDaemon(true);
+    }
+
+    /**
+     * Subscribes the channel to the updates of the game and to the countdown.
+     */
+    public void subscribe(EventBus bus) {
+        bus.subscribe("shared-memory", EnumSet.of(GameEvent.Type.CARD_PLACED, GameEvent.Type.CARD_REMOVED,
+                GameEvent.Type.TOKEN_PLACED, GameEvent.Type.TOKEN_REMOVED, GameEvent.Type.TOKENS_REMOVED,
+                GameEvent.Type.FREEZE, GameEvent.Type.SCORE), BUFFER_EVENTS, EventBus.Backpressure.CANCEL, this);
+        bus.subscribe("shared-memory-countdown", EnumSet.of(GameEvent.Type.COUNTDOWN, GameEvent.Type.COUNTDOWN_WARN),
+                COUNTDOWN_EVENTS, EventBus.Backpressure.DROP_OLDEST, this);
+    }
+
+    /**
+     * Starts passing the presses of the bots to the players.
+     */
+    public void start() {
+        poller.start();
+    }
+
+    /**
+     * Marks the game as over in the file and stops the poller.
+     */
+    public void close() {
+        closed = true;
+        buffer.putInt(SharedMemoryLayout.STATE_OFFSET, SharedMemoryLayout.OVER);
+        Fences.store();
+        LockSupport.unpark(poller);
+        try {
+            poller.join();
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    /**
+     * The poller loop.
+     */
+    @Override
+    public void run() {
+        logger.info("thread " + Thread.currentThread().getName() + " starting.");
+        logger.severe("shared memory channel of " + layout.bots + " bots in " + file.getAbsolutePath());
+        long[] tails = new long[layout.bots];
+        long lastPress = System.nanoTime();
+        while (!closed) {
+            boolean pressed = false;
+            for (int bot = 0; bot < layout.bots; bot++) {
+                long head = buffer.getLong(layout.head(bot));
+                Fences.load(); // the slots are read after the head
+                long tail = Math.max(tails[bot], head - RING_CAPACITY);
+                if (tail >= head)
+                    continue;
+                Player player = players[layout.firstBot + bot];
+                for (; tail < head; tail++) {
+                    int slot = buffer.getInt(layout.slot(bot, tail));
+                    if (slot >= 0 && slot < layout.tableSize)
+                        player.keyPressed(slot);
+                    presses++;
+                }
+                Fences.load(); // the slots are read before the tail releases them
+                buffer.putLong(layout.tail(bot), tail);
+                tails[bot] = tail;
+                pressed = true;
+            }
+            if (pressed)
+                lastPress = System.nanoTime();
+            else if (System.nanoTime() - lastPress > SPIN_NANOS)
+                LockSupport.parkNanos(this, PARK_NANOS);
+        }
+        logger.severe("shared memory channel passed " + presses + " presses from the bots");
+        logger.info("thread " + Thread.currentThread().getName() + " terminated.");
+    }
+
+    /**
+     * Starts writing the table: makes the sequence number odd, must be followed by endWrite.
+     */
+    private void beginWrite() {
+        lock.lock();
+        buffer.putLong(SharedMemoryLayout.SEQUENCE_OFFSET, buffer.getLong(SharedMemoryLayout.SEQUENCE_OFFSET) + 1);
+        Fences.store(); // the table is written after the sequence number is odd
+    }
+
+    /**
+     * Ends writing the table: makes the sequence number even again.
+     */
+    private void endWrite() {
+        Fences.store(); // the table is written before the sequence number is even
+        buffer.putLong(SharedMemoryLayout.SEQUENCE_OFFSET, buffer.getLong(SharedMemoryLayout.SEQUENCE_OFFSET) + 1);
+        lock.unlock();
+    }
+
+    private void setToken(int player, int slot, boolean set) {
+        int offset = layout.tokens(slot, player >>> 6);
+        long bit = 1L << (player & 63);
+        long word = buffer.getLong(offset);
+        buffer.putLong(offset, set ? word | bit : word & ~bit);
+    }
+
+    private void clearTokens(int slot) {
+        for (int word = 0; word < layout.tokenWords; word++)
+            buffer.putLong(layout.tokens(slot, word), 0);
+    }
+
+    /**
+     * Writes an update of the game to the table in the file (called on the channel's bus threads).
+     */
+    @Override
+    public void onEvent(GameEvent event) {
+        if (event.type == GameEvent.Type.COUNTDOWN || event.type == GameEvent.Type.COUNTDOWN_WARN) {
+            // the dealer sets the countdown in a tight loop in the warning time, writing the same value again would
+            // keep the bots reading again and again
+            if (buffer.getLong(SharedMemoryLayout.COUNTDOWN_OFFSET) == event.value)
+                return;
+        }
+        beginWrite();
+        try {
+            switch (event.type) {
+                case CARD_PLACED:
+                    buffer.putInt(layout.card(event.slot), event.card);
+                    break;
+                case CARD_REMOVED:
+                    buffer.putInt(layout.card(event.slot), -1);
+                    break;
+                case TOKEN_PLACED:
+                    setToken(event.player, event.slot, true);
+                    break;
+                case TOKEN_REMOVED:
+                    setToken(event.player, event.slot, false);
+                    break;
+                case TOKENS_REMOVED:
+                    if (event.slot == GameEvent.NONE) {
+                        for (int slot = 0; slot < layout.tableSize; slot++)
+                            clearTokens(slot);
+                    } else
+                        clearTokens(event.slot);
+                    break;
+                case FREEZE:
+                    buffer.putLong(layout.freeze(event.player), event.value);
+                    break;
+                case SCORE:
+                    buffer.putInt(layout.score(event.player), (int) event.value);
+                    break;
+                case COUNTDOWN:
+                case COUNTDOWN_WARN:
+                    buffer.putLong(SharedMemoryLayout.COUNTDOWN_OFFSET, event.value);
+                    break;
+                default:
+                    break;
+            }
+        } finally {
+            endWrite();
+        }
+    }
+}
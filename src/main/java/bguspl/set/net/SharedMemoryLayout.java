@@ -0,0 +1,147 @@
+package bguspl.set.net;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The layout of the shared memory file of the game and its bots (all the numbers in the native byte order).
+ *
+ * Header: the magic number, the layout version, the table size, the number of players, the id of the first bot
+ * player, the number of bots, the ring capacity, the feature size, the feature count, the number of token words per
+ * slot and the game state (RUNNING or OVER).
+ *
+ * Table (guarded by a seqlock: the sequence number is odd while the table is written): the sequence number, the
+ * countdown (milliseconds), the card in each slot (-1 if empty), the token bitmask words of each slot (bit p of word w
+ * is player 64 * w + p), the score of each player and the freeze of each player (milliseconds).
+ *
+ * Rings (one per bot, written by the bot, read by the game): the head (the number of presses written), the tail (the
+ * number of presses read, on its own cache line) and the pressed slots.
+ */
+final class SharedMemoryLayout {
+
+    static final int MAGIC = 0x5345544D; // "SETM"
+    static final int VERSION = 1;
+
+    static final int RUNNING = 1;
+    static final int OVER = 2;
+
+    private static final int CACHE_LINE = 64;
+
+    /**
+     * Header offsets.
+     */
+    static final int MAGIC_OFFSET = 0;
+    static final int VERSION_OFFSET = 4;
+    static final int TABLE_SIZE_OFFSET = 8;
+    static final int PLAYERS_OFFSET = 12;
+    static final int FIRST_BOT_OFFSET = 16;
+    static final int BOTS_OFFSET = 20;
+    static final int RING_CAPACITY_OFFSET = 24;
+    static final int FEATURE_SIZE_OFFSET = 28;
+    static final int FEATURE_COUNT_OFFSET = 32;
+    static final int TOKEN_WORDS_OFFSET = 36;
+    static final int STATE_OFFSET = 40;
+
+    /**
+     * Table offsets.
+     */
+    static final int SEQUENCE_OFFSET = CACHE_LINE;
+    static final int COUNTDOWN_OFFSET = SEQUENCE_OFFSET + 8;
+    static final int CARDS_OFFSET = COUNTDOWN_OFFSET + 8;
+
+    final int tableSize;
+    final int players;
+    final int firstBot;
+    final int bots;
+    final int ringCapacity;
+    final int featureSize;
+    final int featureCount;
+    final int tokenWords;
+
+    final int tokensOffset;
+    final int scoresOffset;
+    final int freezesOffset;
+    final int ringsOffset;
+    final int ringSize;
+    final int size;
+
+    SharedMemoryLayout(int tableSize, int players, int firstBot, int bots, int ringCapacity, int featureSize, int featureCount) {
+        this.tableSize = tableSize;
+        this.players = players;
+        this.firstBot = firstBot;
+        this.bots = bots;
+        this.ringCapacity = ringCapacity;
+        this.featureSize = featureSize;
+        this.featureCount = featureCount;
+        tokenWords = (players + 63) / 64;
+        tokensOffset = align(CARDS_OFFSET + 4 * tableSize, 8);
+        scoresOffset = tokensOffset + 8 * tableSize * tokenWords;
+        freezesOffset = align(scoresOffset + 4 * players, 8);
+        ringsOffset = align(freezesOffset + 8 * players, CACHE_LINE);
+        ringSize = align(2 * CACHE_LINE + 4 * ringCapacity, CACHE_LINE);
+        size = ringsOffset + bots * ringSize;
+    }
+
+    /**
+     * Reads the layout from the header of a mapped file.
+     * @throws IllegalArgumentException - if the file is not a shared memory file of this layout version.
+     */
+    static SharedMemoryLayout read(ByteBuffer buffer) {
+        if (buffer.capacity() < CACHE_LINE || buffer.getInt(MAGIC_OFFSET) != MAGIC)
+            throw new IllegalArgumentException("not a shared memory file of the game");
+        if (buffer.getInt(VERSION_OFFSET) != VERSION)
+            throw new IllegalArgumentException("unsupported shared memory layout version " + buffer.getInt(VERSION_OFFSET));
+        return new SharedMemoryLayout(buffer.getInt(TABLE_SIZE_OFFSET), buffer.getInt(PLAYERS_OFFSET),
+                buffer.getInt(FIRST_BOT_OFFSET), buffer.getInt(BOTS_OFFSET), buffer.getInt(RING_CAPACITY_OFFSET),
+                buffer.getInt(FEATURE_SIZE_OFFSET), buffer.getInt(FEATURE_COUNT_OFFSET));
+    }
+
+    /**
+     * Writes the header (the magic number last, so a reader never sees a partial header as valid).
+     */
+    void write(ByteBuffer buffer) {
+        buffer.putInt(VERSION_OFFSET, VERSION);
+        buffer.putInt(TABLE_SIZE_OFFSET, tableSize);
+        buffer.putInt(PLAYERS_OFFSET, players);
+        buffer.putInt(FIRST_BOT_OFFSET, firstBot);
+        buffer.putInt(BOTS_OFFSET, bots);
+        buffer.putInt(RING_CAPACITY_OFFSET, ringCapacity);
+        buffer.putInt(FEATURE_SIZE_OFFSET, featureSize);
+        buffer.putInt(FEATURE_COUNT_OFFSET, featureCount);
+        buffer.putInt(TOKEN_WORDS_OFFSET, tokenWords);
+        buffer.putInt(STATE_OFFSET, RUNNING);
+        Fences.store();
+        buffer.putInt(MAGIC_OFFSET, MAGIC);
+    }
+
+    int card(int slot) {
+        return CARDS_OFFSET + 4 * slot;
+    }
+
+    int tokens(int slot, int word) {
+        return tokensOffset + 8 * (slot * tokenWords + word);
+    }
+
+    int score(int player) {
+        return scoresOffset + 4 * player;
+    }
+
+    int freeze(int player) {
+        return freezesOffset + 8 * player;
+    }
+
+    int head(int bot) {
+        return ringsOffset + bot * ringSize;
+    }
+
+    int tail(int bot) {
+        return head(bot) + CACHE_LINE;
+    }
+
+    int slot(int bot, long sequence) {
+        return head(bot) + 2 * CACHE_LINE + 4 * (int) (sequence % ringCapacity);
+    }
+
+    private static int align(int offset, int alignment) {
+        return (offset + alignment - 1) / alignment * alignment;
+    }
+}
@@ -0,0 +1,226 @@
+package bguspl.set.net;
+
+import bguspl.set.Varint;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * A test client of the spectator server, run over localhost.
+ * Opens many spectator connections from one thread with one selector and decodes the stream of each of them. When a
+ * keyframe follows the deltas without a gap, the state built from the deltas is checked against the keyframe.
+ * Reports the frames and bytes received, the checks that failed, and the last state of the first spectator.
+ *
+ * Usage: SpectatorClient port [spectators=100] [seconds=10]
+ */
+public class SpectatorClient {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * A decoded game state.
+     */
+    private static final class State {
+        final Map<Integer, Integer> cards = new HashMap<>();
+        final Map<Integer, BitSet> tokens = new HashMap<>();
+        final Map<Integer, Long> scores = new HashMap<>();
+        final Map<Integer, Long> freezes = new HashMap<>();
+        long countdown;
+        boolean warn;
+
+        void apply(ByteBuffer records) {
+            while (records.hasRemaining()) {
+                byte tag = records.get();
+                switch (tag) {
+                    case SpectatorServer.CARD: {
+                        int slot = (int) Varint.get(records);
+                        int card = (int) Varint.get(records) - 1;
+                        if (card >= 0) cards.put(slot, card);
+                        else cards.remove(slot);
+                        break;
+                    }
+                    case SpectatorServer.TOKEN:
+                        tokens.computeIfAbsent((int) Varint.get(records), slot -> new BitSet())
+                                .set((int) Varint.get(records));
+                        break;
+                    case SpectatorServer.TOKEN_OFF:
+                        tokens.computeIfAbsent((int) Varint.get(records), slot -> new BitSet())
+                                .clear((int) Varint.get(records));
+                        break;
+                    case SpectatorServer.TOKENS_OFF:
+                        tokens.remove((int) Varint.get(records));
+                        break;
+                    case SpectatorServer.ALL_OFF:
+                        tokens.clear();
+                        break;
+                    case SpectatorServer.SCORE:
+                        scores.merge((int) Varint.get(records),
+                                Varint.unzigzag(Varint.get(records)), Long::sum);
+                        break;
+                    case SpectatorServer.FREEZE:
+                        freezes.merge((int) Varint.get(records),
+                                Varint.unzigzag(Varint.get(records)), Long::sum);
+                        break;
+                    case SpectatorServer.COUNTDOWN:
+                    case SpectatorServer.COUNTDOWN_WARN:
+                        countdown += Varint.unzigzag(Varint.get(records));
+                        warn = tag == SpectatorServer.COUNTDOWN_WARN;
+                        break;
+                    case SpectatorServer.WINNER:
+                        Varint.get(records);
+                        break;
+                    default:
+                        throw new IllegalStateException("unknown record tag " + tag);
+                }
+            }
+        }
+
+        boolean sameAs(State other) {
+            tokens.values().removeIf(BitSet::isEmpty);
+            scores.values().removeIf(score -> score == 0);
+            freezes.values().removeIf(freeze -> freeze == 0);
+            return cards.equals(other.cards) && tokens.equals(other.tokens) && scores.equals(other.scores)
+                    && freezes.equals(other.freezes) && countdown == other.countdown;
+        }
+
+        @Override
+        public String toString() {
+            int[] table = new int[cards.keySet().stream().mapToInt(Integer::intValue).max().orElse(-1) + 1];
+            Arrays.fill(table, -1);
+            cards.forEach((slot, card) -> table[slot] = card);
+            return "cards " + Arrays.toString(table) + ", scores " + scores + ", countdown " + countdown
+                    + (warn ? " (warning)" : "");
+        }
+    }
+
+    /**
+     * A spectator connection and its decoded state (null until the first keyframe).
+     */
+    private static final class Spectator {
+        final SocketChannel channel;
+        final ByteBuffer input = ByteBuffer.allocate(BUFFER_SIZE);
+        State state;
+        int sequence = -1;
+
+        Spectator(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    private final Selector selector;
+    private final Spectator[] spectators;
+
+    /**
+     * The statistics of the run.
+     */
+    private long frames, keyframes, bytes, checks, mismatches, gaps;
+    private int closed;
+
+    private SpectatorClient(int port, int count) throws IOException {
+        selector = Selector.open();
+        spectators = new Spectator[count];
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+        for (int i = 0; i < count; i++) {
+            SocketChannel channel = SocketChannel.open(address);
+            channel.configureBlocking(false);
+            spectators[i] = new Spectator(channel);
+            channel.register(selector, SelectionKey.OP_READ, spectators[i]);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("usage: SpectatorClient port [spectators] [seconds]");
+            return;
+        }
+        int port = Integer.parseInt(args[0]);
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        long seconds = args.length > 2 ? Long.parseLong(args[2]) : 10;
+
+        SpectatorClient client = new SpectatorClient(port, count);
+        long start = System.nanoTime();
+        client.run(start + seconds * 1_000_000_000L);
+        client.report(System.nanoTime() - start);
+    }
+
+    private void run(long end) throws IOException {
+        while (System.nanoTime() < end && closed < spectators.length) {
+            selector.select(10);
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                if (key.isValid() && key.isReadable())
+                    read((Spectator) key.attachment());
+            }
+        }
+        for (Spectator spectator : spectators)
+            spectator.channel.close();
+        selector.close();
+    }
+
+    private void read(Spectator spectator) throws IOException {
+        int count = spectator.channel.read(spectator.input);
+        if (count < 0) {
+            closed++;
+            spectator.channel.close();
+            return;
+        }
+        bytes += count;
+        ByteBuffer input = spectator.input;
+        input.flip();
+        while (input.remaining() >= SpectatorServer.HEADER_SIZE
+                && input.remaining() >= SpectatorServer.HEADER_SIZE + input.getInt(input.position() + 5)) {
+            byte type = input.get();
+            int sequence = input.getInt();
+            int length = input.getInt();
+            ByteBuffer records = input.slice();
+            records.limit(length);
+            input.position(input.position() + length);
+            receive(spectator, type, sequence, records);
+        }
+        input.compact();
+    }
+
+    private void receive(Spectator spectator, byte type, int sequence, ByteBuffer records) {
+        frames++;
+        boolean gap = spectator.sequence >= 0 && sequence != spectator.sequence + 1;
+        if (gap)
+            gaps++;
+        spectator.sequence = sequence;
+        if (type == SpectatorServer.KEYFRAME) {
+            keyframes++;
+            State state = new State();
+            state.apply(records);
+            if (spectator.state != null && !gap) {
+                checks++;
+                if (!spectator.state.sameAs(state))
+                    mismatches++;
+            }
+            spectator.state = state;
+        } else if (spectator.state != null && !gap)
+            spectator.state.apply(records);
+        else
+            spectator.state = null; // wait for the next keyframe
+    }
+
+    private void report(long nanos) {
+        double seconds = nanos / 1e9;
+        System.out.printf("spectators: %d, closed by the server: %d%n", spectators.length, closed);
+        System.out.printf("frames received: %d (%d keyframes), %d bytes (%.0f per second per spectator)%n",
+                frames, keyframes, bytes, bytes / seconds / spectators.length);
+        System.out.printf("keyframe checks: %d, failed: %d, sequence gaps: %d%n", checks, mismatches, gaps);
+        if (spectators[0].state != null)
+            System.out.println("last state: " + spectators[0].state);
+    }
+}
@@ -0,0 +1,522 @@
+package bguspl.set.net;
+
+import bguspl.set.Config;
+import bguspl.set.EventBus;
+import bguspl.set.GameEvent;
+import bguspl.set.Varint;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+/**
+ * This class streams the game to spectators over a loopback TCP connection.
+ * The server subscribes to the updates of the game on the event bus, and turns them into records (written by its bus
+ * threads under a short lock, so the game threads only publish the updates): the scores, the freezes and the countdown are encoded as
+ * differences from their previous values, and all the numbers as variable length ints, so most records take 2-3 bytes.
+ * The countdown is updated very often, so only its last value in a frame is sent.
+ * Once per frame the server thread seals the new records into a delta frame, and every few seconds it seals the full
+ * state into a keyframe. A frame is encoded once, into a direct buffer, and every spectator gets a view of the same
+ * bytes (no copy per spectator). A spectator that connects gets the last keyframe and the deltas since, a spectator
+ * that falls behind by a whole keyframe interval skips to the next keyframe, so a slow spectator never holds back
+ * the game or the other spectators.
+ *
+ * Frame: a type byte (DELTA or KEYFRAME), a sequence number (int), the payload length (int), the payload.
+ * A keyframe resets the state (no cards, tokens, scores, freezes, countdown 0) before its records are applied.
+ * Record: a tag byte and its arguments (variable length ints, differences are zigzag encoded).
+ */
+public class SpectatorServer implements EventBus.Subscriber, Runnable {
+
+    /**
+     * Frame types.
+     */
+    public static final byte DELTA = 1;
+    public static final byte KEYFRAME = 2;
+    public static final int HEADER_SIZE = 9;
+
+    /**
+     * Record tags.
+     * CARD       - slot, card + 1 (0 if the slot is empty).
+     * TOKEN      - slot, player (a token was placed).
+     * TOKEN_OFF  - slot, player (a token was removed).
+     * TOKENS_OFF - slot (all the tokens in the slot were removed).
+     * ALL_OFF    - (all the tokens were removed).
+     * SCORE      - player, score difference.
+     * FREEZE     - player, freeze difference (milliseconds).
+     * COUNTDOWN  - countdown difference (milliseconds), COUNTDOWN_WARN if the countdown is in the warning time.
+     * WINNER     - player.
+     */
+    public static final byte CARD = 1;
+    public static final byte TOKEN = 2;
+    public static final byte TOKEN_OFF = 3;
+    public static final byte TOKENS_OFF = 4;
+    public static final byte ALL_OFF = 5;
+    public static final byte SCORE = 6;
+    public static final byte FREEZE = 7;
+    public static final byte COUNTDOWN = 8;
+    public static final byte COUNTDOWN_WARN = 9;
+    public static final byte WINNER = 10;
+
+    /**
+     * The initial size of the record buffer, and the size of the direct buffers the frames are sliced from.
+     */
+    private static final int RECORDS_SIZE = 4 * 1024;
+    private static final int SLAB_SIZE = 1024 * 1024;
+
+    /**
+     * The number of frames written to a spectator at once.
+     */
+    private static final int GATHER = 16;
+
+    /**
+     * The sizes of the server's buffers on the bus. The state cannot miss an update, so if its buffer is ever full
+     * the subscription is cancelled (and logged) rather than a wrong state streamed. Only the last countdown of a
+     * frame is sent, so the countdown has a small buffer of its own that drops the oldest values.
+     */
+    private static final int BUFFER_EVENTS = 1 << 16;
+    private static final int COUNTDOWN_EVENTS = 16;
+
+    private final Logger logger;
+    private final Config config;
+
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final Thread thread;
+    private volatile boolean closed;
+
+    /**
+     * The time between two delta frames and two keyframes.
+     */
+    private final long frameNanos;
+    private final long keyframeNanos;
+
+    /**
+     * Guards the records and the state.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+    private ByteBuffer records = ByteBuffer.allocate(RECORDS_SIZE);
+
+    /**
+     * The state the differences are taken from: the card in each slot (-1 if empty), the players with a token in
+     * each slot, the scores, the freezes, the countdown, and the countdown last sent (and if it was changed since).
+     */
+    private final int[] cards;
+    private final BitSet[] tokens;
+    private final int[] scores;
+    private final long[] freezes;
+    private long countdown;
+    private boolean warn;
+    private long sentCountdown;
+    private boolean countdownChanged;
+
+    /**
+     * The following fields are only accessed by the server thread.
+     * The spectators, the last keyframe and the deltas since, the direct buffer the next frames are sliced from,
+     * and the statistics.
+     */
+    private final List<Spectator> spectators = new ArrayList<>();
+    private ByteBuffer keyframe;
+    private final List<ByteBuffer> deltas = new ArrayList<>();
+    private ByteBuffer slab = ByteBuffer.allocateDirect(SLAB_SIZE);
+    private int sequence;
+    private long frames, keyframes, bytes, skipped;
+    private final ByteBuffer[] gather = new ByteBuffer[GATHER];
+    private final ByteBuffer discard = ByteBuffer.allocate(256);
+
+    /**
+     * A connected spectator: the frames it still has to get (views of the shared frames).
+     */
+    private static final class Spectator {
+        final SocketChannel channel;
+        final SelectionKey key;
+        final ArrayDeque<ByteBuffer> queue = new ArrayDeque<>();
+
+        Spectator(SocketChannel channel, Selector selector) throws IOException {
+            this.channel = channel;
+            key = channel.register(selector, SelectionKey.OP_READ, this);
+        }
+    }
+
+    /**
+     * Opens the server socket (the spectators are served once the server is started).
+     * @param logger - the game logger.
+     * @param config - the game configuration.
+     * @throws IOException - if the server socket cannot be opened.
+     */
+    public SpectatorServer(Logger logger, Config config) throws IOException {
+        this.logger = logger;
+        this.config = config;
+        frameNanos = 1_000_000_000L / config.frameRate;
+        keyframeNanos = Math.max(frameNanos, config.spectatorKeyframeMillis * 1_000_000L);
+        cards = new int[config.tableSize];
+        Arrays.fill(cards, -1);
+        tokens = new BitSet[config.tableSize];
+        Arrays.setAll(tokens, slot -> new BitSet(config.players));
+        scores = new int[config.players];
+        freezes = new long[config.players];
+
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        try {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), config.spectatorPort), config.spectatorMaxViewers);
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            server.close();
+            selector.close();
+            throw e;
+        }
+        thread = new Thread(this, "spectator-server");
+        thread.setDaemon(true);
+    }
+
+    /**
+     * Subscribes the server to the updates of the game and to the countdown.
+     */
+    public void subscribe(EventBus bus) {
+        bus.subscribe("spectator-server", EnumSet.of(GameEvent.Type.CARD_PLACED, GameEvent.Type.CARD_REMOVED,
+                GameEvent.Type.TOKEN_PLACED, GameEvent.Type.TOKEN_REMOVED, GameEvent.Type.TOKENS_REMOVED,
+                GameEvent.Type.FREEZE, GameEvent.Type.SCORE, GameEvent.Type.WINNER), BUFFER_EVENTS,
+                EventBus.Backpressure.CANCEL, this);
+        bus.subscribe("spectator-countdown", EnumSet.of(GameEvent.Type.COUNTDOWN, GameEvent.Type.COUNTDOWN_WARN),
+                COUNTDOWN_EVENTS, EventBus.Backpressure.DROP_OLDEST, this);
+    }
+
+    /**
+     * Starts streaming the game.
+     */
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * Sends the last frames and stops streaming the game.
+     */
+    public void close() {
+        closed = true;
+        selector.wakeup();
+        try {
+            thread.join();
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    /**
+     * The server loop.
+     */
+    @Override
+    public void run() {
+        logger.info("thread " + Thread.currentThread().getName() + " starting.");
+        logger.severe("spectator server listening on " + server.socket().getLocalSocketAddress());
+        long nextFrame = System.nanoTime();
+        long nextKeyframe = nextFrame;
+        try {
+            while (!closed) {
+                long now = System.nanoTime();
+                if (now >= nextFrame) {
+                    seal(now >= nextKeyframe);
+                    if (now >= nextKeyframe)
+                        nextKeyframe = now + keyframeNanos;
+                    nextFrame = Math.max(nextFrame + frameNanos, now);
+                }
+                selector.select(Math.max(1, (nextFrame - System.nanoTime()) / 1_000_000L));
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid())
+                        continue;
+                    if (key.isAcceptable())
+                        accept();
+                    else {
+                        Spectator spectator = (Spectator) key.attachment();
+                        if (key.isReadable())
+                            read(spectator);
+                        if (key.isValid() && key.isWritable())
+                            write(spectator);
+                    }
+                }
+            }
+            seal(false);
+        } catch (IOException e) {
+            logger.severe("spectator server failed: " + e);
+        } finally {
+            for (Spectator spectator : new ArrayList<>(spectators))
+                disconnect(spectator);
+            try {
+                server.close();
+                selector.close();
+            } catch (IOException ignored) {
+            }
+        }
+        logger.severe("spectator server sent " + frames + " frames (" + keyframes + " keyframes, " + bytes
+                + " bytes), spectators skipped to a keyframe " + skipped + " times");
+        logger.info("thread " + Thread.currentThread().getName() + " terminated.");
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            if (spectators.size() >= config.spectatorMaxViewers) {
+                channel.close();
+                continue;
+            }
+            channel.configureBlocking(false);
+            Spectator spectator = new Spectator(channel, selector);
+            spectators.add(spectator);
+            if (keyframe != null) {
+                spectator.queue.add(keyframe.duplicate());
+                for (ByteBuffer delta : deltas)
+                    spectator.queue.add(delta.duplicate());
+                write(spectator);
+            }
+        }
+    }
+
+    /**
+     * Spectators do not send anything, reading only finds out if the connection was closed.
+     */
+    private void read(Spectator spectator) {
+        discard.clear();
+        try {
+            if (spectator.channel.read(discard) >= 0)
+                return;
+        } catch (IOException ignored) {
+        }
+        disconnect(spectator);
+    }
+
+    /**
+     * Seals the new records into a delta frame (if there are any) and the state into a keyframe (if asked to), and
+     * queues them to the spectators.
+     */
+    private void seal(boolean withKeyframe) {
+        ByteBuffer delta = null;
+        ByteBuffer full = null;
+        lock.lock();
+        try {
+            if (countdownChanged) {
+                record(warn ? COUNTDOWN_WARN : COUNTDOWN, Varint.zigzag(countdown - sentCountdown));
+                sentCountdown = countdown;
+                countdownChanged = false;
+            }
+            if (records.position() > 0) {
+                records.flip();
+                delta = frame(DELTA, records);
+                records.clear();
+            }
+            if (withKeyframe) {
+                putState();
+                records.flip();
+                full = frame(KEYFRAME, records);
+                records.clear();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (delta != null) {
+            deltas.add(delta);
+            for (Spectator spectator : spectators)
+                spectator.queue.add(delta.duplicate());
+        }
+        if (full != null) {
+            int previous = keyframe != null ? keyframe.getInt(1) : -1;
+            keyframe = full;
+            deltas.clear();
+            keyframes++;
+            for (Spectator spectator : spectators) {
+                // a spectator that did not get the previous keyframe yet gets this keyframe instead of the rest
+                ByteBuffer oldest = spectator.queue.peek();
+                if (oldest != null && oldest.getInt(1) <= previous) {
+                    spectator.queue.poll();
+                    spectator.queue.clear();
+                    if (oldest.position() > 0)
+                        spectator.queue.add(oldest); // the frame being written is finished first
+                    skipped++;
+                }
+                spectator.queue.add(full.duplicate());
+            }
+        }
+        for (int i = spectators.size() - 1; i >= 0; i--) {
+            Spectator spectator = spectators.get(i);
+            if (!spectator.queue.isEmpty() && (spectator.key.interestOps() & SelectionKey.OP_WRITE) == 0)
+                write(spectator);
+        }
+    }
+
+    /**
+     * @return - a frame with the payload, in a slice of the shared direct buffer.
+     */
+    private ByteBuffer frame(byte type, ByteBuffer payload) {
+        int size = HEADER_SIZE + payload.remaining();
+        if (slab.remaining() < size)
+            slab = ByteBuffer.allocateDirect(Math.max(SLAB_SIZE, size)); // the old slab is freed with its last frame
+        ByteBuffer frame = slab.slice();
+        frame.limit(size);
+        slab.position(slab.position() + size);
+        frame.put(type).putInt(sequence++).putInt(payload.remaining()).put(payload);
+        frame.flip();
+        frames++;
+        bytes += size;
+        return frame.asReadOnlyBuffer();
+    }
+
+    /**
+     * Writes as many of a spectator's frames as the socket takes, and waits for the socket to take the rest.
+     */
+    private void write(Spectator spectator) {
+        try {
+            while (!spectator.queue.isEmpty()) {
+                int count = 0;
+                for (ByteBuffer frame : spectator.queue) {
+                    gather[count++] = frame;
+                    if (count == GATHER)
+                        break;
+                }
+                spectator.channel.write(gather, 0, count);
+                while (!spectator.queue.isEmpty() && !spectator.queue.peek().hasRemaining())
+                    spectator.queue.poll();
+                if (gather[count - 1].hasRemaining())
+                    break; // the socket is full
+            }
+        } catch (IOException e) {
+            disconnect(spectator);
+            return;
+        } finally {
+            Arrays.fill(gather, null);
+        }
+        spectator.key.interestOps(spectator.queue.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    private void disconnect(Spectator spectator) {
+        spectators.remove(spectator);
+        spectator.key.cancel();
+        try {
+            spectator.channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Writes the state as the records of a keyframe (differences from the reset state), must hold the lock.
+     */
+    private void putState() {
+        for (int slot = 0; slot < cards.length; slot++) {
+            if (cards[slot] >= 0)
+                record(CARD, slot, cards[slot] + 1);
+            for (int player = tokens[slot].nextSetBit(0); player >= 0; player = tokens[slot].nextSetBit(player + 1))
+                record(TOKEN, slot, player);
+        }
+        for (int player = 0; player < scores.length; player++) {
+            if (scores[player] != 0)
+                record(SCORE, player, Varint.zigzag(scores[player]));
+            if (freezes[player] != 0)
+                record(FREEZE, player, Varint.zigzag(freezes[player]));
+        }
+        record(warn ? COUNTDOWN_WARN : COUNTDOWN, Varint.zigzag(countdown));
+    }
+
+    /**
+     * Writes a record, must hold the lock.
+     */
+    private void record(byte tag) {
+        ensure(1);
+        records.put(tag);
+    }
+
+    private void record(byte tag, long argument) {
+        ensure(11);
+        records.put(tag);
+        Varint.put(records, argument);
+    }
+
+    private void record(byte tag, long first, long second) {
+        ensure(21);
+        records.put(tag);
+        Varint.put(records, first);
+        Varint.put(records, second);
+    }
+
+    private void ensure(int size) {
+        if (records.remaining() < size) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(records.capacity() * 2, records.position() + size));
+            records.flip();
+            larger.put(records);
+            records = larger;
+        }
+    }
+
+    /**
+     * Records an update of the game (called on the server's bus threads).
+     */
+    @Override
+    public void onEvent(GameEvent event) {
+        lock.lock();
+        try {
+            switch (event.type) {
+                case CARD_PLACED:
+                    cards[event.slot] = event.card;
+                    record(CARD, event.slot, event.card + 1);
+                    break;
+                case CARD_REMOVED:
+                    cards[event.slot] = -1;
+                    record(CARD, event.slot, 0);
+                    break;
+                case TOKEN_PLACED:
+                    tokens[event.slot].set(event.player);
+                    record(TOKEN, event.slot, event.player);
+                    break;
+                case TOKEN_REMOVED:
+                    tokens[event.slot].clear(event.player);
+                    record(TOKEN_OFF, event.slot, event.player);
+                    break;
+                case TOKENS_REMOVED:
+                    if (event.slot == GameEvent.NONE) {
+                        for (BitSet slot : tokens)
+                            slot.clear();
+                        record(ALL_OFF);
+                    } else {
+                        tokens[event.slot].clear();
+                        record(TOKENS_OFF, event.slot);
+                    }
+                    break;
+                case FREEZE:
+                    record(FREEZE, event.player, Varint.zigzag(event.value - freezes[event.player]));
+                    freezes[event.player] = event.value;
+                    break;
+                case SCORE:
+                    record(SCORE, event.player, Varint.zigzag(event.value - scores[event.player]));
+                    scores[event.player] = (int) event.value;
+                    break;
+                case WINNER:
+                    record(WINNER, event.player);
+                    break;
+                case COUNTDOWN:
+                case COUNTDOWN_WARN:
+                    countdown = event.value;
+                    warn = event.type == GameEvent.Type.COUNTDOWN_WARN;
+                    countdownChanged = true;
+                    break;
+                default:
+                    break;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package bguspl.set;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EventJournalTest {
+
+    private static final String NAME = "game";
+
+    @TempDir
+    File directory;
+
+    private Logger logger;
+
+    @BeforeEach
+    void setUp() {
+        logger = Logger.getAnonymousLogger();
+        logger.setUseParentHandlers(false);
+    }
+
+    /**
+     * @return - one event of each type the journal records, at increasing times.
+     */
+    private static List<GameEvent> eventOfEachType(long start) {
+        int none = GameEvent.NONE;
+        List<GameEvent> events = new ArrayList<>();
+        events.add(new GameEvent(GameEvent.Type.CARD_PLACED, start, none, 3, 80, 0, null, null));
+        events.add(new GameEvent(GameEvent.Type.CARD_REMOVED, start + 1, none, 3, none, 0, null, null));
+        events.add(new GameEvent(GameEvent.Type.TOKEN_PLACED, start + 1_000, 1, 4, none, 0, null, null));
+        events.add(new GameEvent(GameEvent.Type.TOKEN_REMOVED, start + 2_000, 1, 4, none, 0, null, null));
+        events.add(new GameEvent(GameEvent.Type.TOKENS_REMOVED, start + 3_000, none, none, none, 0, null, null));
+        events.add(new GameEvent(GameEvent.Type.TOKENS_REMOVED, start + 4_000, none, 11, none, 0, null, null));
+        events.add(new GameEvent(GameEvent.Type.SCORE, start + 5_000_000_000L, 0, none, none, 7, null, null));
+        events.add(new GameEvent(GameEvent.Type.FREEZE, start + 5_000_000_001L, 0, none, none, 3000, null, null));
+        events.add(new GameEvent(GameEvent.Type.CLAIM, start + 6_000_000_000L, 2, none, none, 0,
+                new int[]{0, 5, 11}, null));
+        events.add(new GameEvent(GameEvent.Type.VERDICT, start + 6_000_000_100L, 2, none, none, 1,
+                new int[]{0, 5, 11}, new int[]{0, 40, 80}));
+        // a time before the previous event (the difference is signed)
+        events.add(new GameEvent(GameEvent.Type.WINNER, start + 6_000_000_050L, 2, none, none, 0, null, null));
+        return events;
+    }
+
+    private static void assertSameEvent(GameEvent expected, GameEvent actual) {
+        assertEquals(expected.type, actual.type);
+        assertEquals(expected.nanoTime, actual.nanoTime);
+        assertEquals(expected.player, actual.player);
+        assertEquals(expected.slot, actual.slot);
+        assertEquals(expected.card, actual.card);
+        assertEquals(expected.value, actual.value);
+        assertEquals(expected.slotCount(), actual.slotCount());
+        for (int i = 0; i < expected.slotCount(); i++)
+            assertEquals(expected.slotAt(i), actual.slotAt(i));
+        assertEquals(expected.cardCount(), actual.cardCount());
+        for (int i = 0; i < expected.cardCount(); i++)
+            assertEquals(expected.cardAt(i), actual.cardAt(i));
+    }
+
+    private static List<GameEvent> readAll(EventJournalReader reader) {
+        List<GameEvent> events = new ArrayList<>();
+        while (reader.hasNext())
+            events.add(reader.next());
+        return events;
+    }
+
+    @Test
+    void readsBackEveryTypeOfEvent() throws IOException {
+        EventJournal journal = new EventJournal(logger, directory, NAME, 0);
+        List<GameEvent> written = eventOfEachType(System.nanoTime());
+        written.forEach(journal::onEvent);
+        journal.close();
+
+        List<GameEvent> read = readAll(new EventJournalReader(directory, NAME));
+        assertEquals(written.size(), read.size());
+        for (int i = 0; i < written.size(); i++)
+            assertSameEvent(written.get(i), read.get(i));
+    }
+
+    @Test
+    void continuesInNewSegmentsAndTrimsTheLastOne() throws IOException {
+        EventJournal journal = new EventJournal(logger, directory, NAME, 0); // the smallest segment size
+        List<GameEvent> written = new ArrayList<>();
+        long time = System.nanoTime();
+        for (int i = 0; i < 4_000; i++) { // about 3 segments of 64KB
+            written.addAll(eventOfEachType(time));
+            time += 7_000_000_000L;
+        }
+        written.forEach(journal::onEvent);
+        journal.close();
+
+        List<File> segments = EventJournalReader.segments(directory, NAME);
+        assertTrue(segments.size() > 1, "expected more than one segment, got " + segments.size());
+        long full = segments.get(0).length();
+        File last = segments.get(segments.size() - 1);
+        assertTrue(last.length() < full, "the last segment was not trimmed");
+        assertFalse(EventJournal.segmentFile(directory, NAME, segments.size()).exists());
+
+        List<GameEvent> read = readAll(new EventJournalReader(segments));
+        assertEquals(written.size(), read.size());
+        for (int i = 0; i < written.size(); i++)
+            assertSameEvent(written.get(i), read.get(i));
+    }
+
+    @Test
+    void readsNothingWithoutAJournal() {
+        assertTrue(EventJournalReader.segments(directory, NAME).isEmpty());
+        assertFalse(new EventJournalReader(directory, NAME).hasNext());
+    }
+
+    @Test
+    void rejectsACorruptRecord() throws IOException {
+        EventJournal journal = new EventJournal(logger, directory, NAME, 0);
+        eventOfEachType(System.nanoTime()).forEach(journal::onEvent);
+        journal.close();
+
+        File segment = EventJournal.segmentFile(directory, NAME, 0);
+        try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+            raf.seek(EventJournal.HEADER_SIZE);
+            raf.write(GameEvent.Type.values().length + 1); // an unknown type tag
+        }
+        EventJournalReader reader = new EventJournalReader(directory, NAME);
+        assertThrows(UncheckedIOException.class, reader::hasNext);
+    }
+
+    @Test
+    void rejectsATruncatedRecord() throws IOException {
+        EventJournal journal = new EventJournal(logger, directory, NAME, 0);
+        journal.onEvent(new GameEvent(GameEvent.Type.VERDICT, System.nanoTime(), 2, GameEvent.NONE, GameEvent.NONE,
+                1, new int[]{0, 5, 11}, new int[]{0, 40, 80}));
+        journal.close();
+
+        File segment = EventJournal.segmentFile(directory, NAME, 0);
+        try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+            raf.setLength(raf.length() - 2);
+        }
+        EventJournalReader reader = new EventJournalReader(directory, NAME);
+        assertThrows(UncheckedIOException.class, reader::hasNext);
+    }
+
+    @Test
+    void rejectsAFileThatIsNotAJournal() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(EventJournal.segmentFile(directory, NAME, 0), "rw")) {
+            raf.write(new byte[EventJournal.HEADER_SIZE + 8]);
+        }
+        EventJournalReader reader = new EventJournalReader(directory, NAME);
+        assertThrows(UncheckedIOException.class, reader::hasNext);
+    }
+
+    @Test
+    void varintsRoundTrip() {
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        long[] values = {0, 1, 127, 128, 300, Integer.MAX_VALUE, Long.MAX_VALUE, -1, Long.MIN_VALUE};
+        for (long value : values) {
+            buffer.clear();
+            Varint.put(buffer, Varint.zigzag(value));
+            buffer.flip();
+            assertEquals(value, Varint.unzigzag(Varint.get(buffer)));
+            assertFalse(buffer.hasRemaining());
+        }
+        assertArrayEquals(new long[]{0, 2, 1}, new long[]{Varint.zigzag(0), Varint.zigzag(1), Varint.zigzag(-1)});
+    }
+}
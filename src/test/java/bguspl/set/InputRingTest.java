@@ -0,0 +1,124 @@
+package bguspl.set;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InputRingTest {
+
+    /**
+     * @return - the number of presses a new ring accepts before it is full.
+     */
+    private static int fill(InputRing ring) {
+        int accepted = 0;
+        while (ring.offer(accepted, 0, 0))
+            accepted++;
+        return accepted;
+    }
+
+    @Test
+    void roundsTheCapacityUpToAPowerOfTwo() {
+        assertEquals(2, fill(new InputRing(0)));
+        assertEquals(2, fill(new InputRing(1)));
+        assertEquals(2, fill(new InputRing(2)));
+        assertEquals(8, fill(new InputRing(5)));
+        assertEquals(8, fill(new InputRing(8)));
+        assertEquals(16, fill(new InputRing(9)));
+    }
+
+    @Test
+    void passesThePressesInOrder() {
+        InputRing ring = new InputRing(4);
+        assertTrue(ring.isEmpty());
+        long before = System.nanoTime();
+        assertTrue(ring.offer(65, 1, 3));
+        assertTrue(ring.offer(66, 2, 11));
+        assertFalse(ring.isEmpty());
+
+        List<int[]> presses = new ArrayList<>();
+        assertEquals(2, ring.drain((keyCode, player, slot, pressNanos) -> {
+            assertTrue(pressNanos - before >= 0);
+            presses.add(new int[]{keyCode, player, slot});
+        }));
+        assertEquals(2, presses.size());
+        assertEquals(65, presses.get(0)[0]);
+        assertEquals(1, presses.get(0)[1]);
+        assertEquals(3, presses.get(0)[2]);
+        assertEquals(66, presses.get(1)[0]);
+        assertEquals(2, presses.get(1)[1]);
+        assertEquals(11, presses.get(1)[2]);
+        assertTrue(ring.isEmpty());
+        assertEquals(0, ring.drain((keyCode, player, slot, pressNanos) -> presses.add(null)));
+    }
+
+    @Test
+    void dropsAndCountsPressesWhenFull() {
+        InputRing ring = new InputRing(4);
+        assertEquals(4, fill(ring));
+        assertEquals(1, ring.dropped());
+        assertFalse(ring.offer(100, 0, 0));
+        assertEquals(2, ring.dropped());
+
+        int[] next = {0};
+        assertEquals(4, ring.drain((keyCode, player, slot, pressNanos) -> assertEquals(next[0]++, keyCode)));
+        assertTrue(ring.offer(100, 0, 0)); // the drained cells are free again
+        assertEquals(2, ring.dropped());
+    }
+
+    @Test
+    void wrapsAroundManyTimes() {
+        InputRing ring = new InputRing(4);
+        int[] next = {0};
+        int offered = 0;
+        for (int round = 0; round < 1_000; round++) {
+            int batch = round % 5; // 0 to 4 presses, so the cells in use start at every offset
+            for (int i = 0; i < batch; i++)
+                assertTrue(ring.offer(offered++, round, i));
+            assertEquals(batch, ring.drain((keyCode, player, slot, pressNanos) -> assertEquals(next[0]++, keyCode)));
+        }
+        assertEquals(offered, next[0]);
+        assertEquals(0, ring.dropped());
+    }
+
+    @Test
+    void passesEveryPressFromAProducerThreadToAConsumerThread() throws InterruptedException {
+        InputRing ring = new InputRing(64);
+        int presses = 1_000_000;
+        AtomicReference<String> failure = new AtomicReference<>();
+
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < presses && failure.get() == null; ) {
+                if (ring.offer(i, i % 7, i % 12))
+                    i++;
+                else
+                    Thread.yield();
+            }
+        });
+        int[] next = {0};
+        Thread consumer = new Thread(() -> {
+            while (next[0] < presses && failure.get() == null) {
+                if (ring.drain((keyCode, player, slot, pressNanos) -> {
+                    if (keyCode != next[0] || player != keyCode % 7 || slot != keyCode % 12)
+                        failure.compareAndSet(null, "press " + next[0] + " read as " + keyCode + "/" + player + "/" + slot);
+                    next[0]++;
+                }) == 0)
+                    Thread.yield();
+            }
+        });
+        producer.start();
+        consumer.start();
+        producer.join();
+        consumer.join();
+
+        assertNull(failure.get());
+        assertEquals(presses, next[0]);
+        assertTrue(ring.isEmpty());
+    }
+}
@@ -0,0 +1,134 @@
+package bguspl.set;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Date;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LogSinkTest {
+
+    private static final String NAME = "game";
+
+    @TempDir
+    File directory;
+
+    private LogSink sink;
+
+    @AfterEach
+    void tearDown() {
+        if (sink != null)
+            sink.close();
+    }
+
+    private static LogRecord record(Level level, String message, long millis) {
+        LogRecord record = new LogRecord(level, message);
+        record.setMillis(millis);
+        return record;
+    }
+
+    private File file(String name) {
+        return new File(directory, name);
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void buildsTheDefaultFormatLikeStringFormat() throws IOException {
+        sink = new LogSink(directory, NAME);
+        long[] times = {0, 999, 1_000, 86_399_999, System.currentTimeMillis(), System.currentTimeMillis() + 1_001};
+        StringBuilder expected = new StringBuilder();
+        for (long millis : times) {
+            for (Level level : new Level[]{Level.INFO, Level.SEVERE, Level.FINEST}) {
+                String message = "message at " + millis + " - caf\u00e9 \u05e9";
+                sink.publish(record(level, message, millis));
+                expected.append(String.format(LogSink.DEFAULT_FORMAT, new Date(millis), level.getLocalizedName(),
+                        message));
+            }
+        }
+        sink.close();
+        assertEquals(expected.toString(), read(file(NAME + ".log")));
+    }
+
+    @Test
+    void usesAnyOtherFormatWithStringFormat() throws IOException {
+        sink = new LogSink(directory, NAME);
+        sink.setFormat("%2$s: %3$s%n");
+        sink.publish(record(Level.WARNING, "careful", 0));
+        sink.close();
+        assertEquals(String.format("%s: careful%n", Level.WARNING.getLocalizedName()), read(file(NAME + ".log")));
+    }
+
+    @Test
+    void writesRecordsLargerThanTheBuffer() throws IOException {
+        sink = new LogSink(directory, NAME);
+        sink.setFormat("%3$s%n");
+        StringBuilder message = new StringBuilder();
+        while (message.length() < 200_000)
+            message.append("0123456789");
+        sink.publish(record(Level.INFO, message.toString(), 0));
+        sink.close();
+        assertEquals(message + System.lineSeparator(), read(file(NAME + ".log")));
+    }
+
+    @Test
+    void continuesInANewFileWhenTheFileIsFull() throws IOException {
+        sink = new LogSink(directory, NAME);
+        sink.setFormat("%3$s%n");
+        sink.setRotation(10, 0);
+        for (int i = 0; i < 4; i++) {
+            sink.publish(record(Level.INFO, "record number " + i, 0));
+            sink.flush();
+        }
+        sink.close();
+
+        assertEquals("record number 0" + System.lineSeparator(), read(file(NAME + ".log")));
+        for (int i = 1; i < 4; i++)
+            assertEquals("record number " + i + System.lineSeparator(), read(file(NAME + "." + i + ".log")));
+        assertEquals(0, file(NAME + ".4.log").length()); // opened by the last rotation
+    }
+
+    @Test
+    void keepsOnlyTheNewestFiles() throws IOException {
+        sink = new LogSink(directory, NAME);
+        sink.setFormat("%3$s%n");
+        sink.setRotation(10, 2);
+        for (int i = 0; i < 5; i++) {
+            sink.publish(record(Level.INFO, "record number " + i, 0));
+            sink.flush();
+        }
+        sink.close();
+
+        assertFalse(file(NAME + ".log").exists());
+        for (int i = 1; i <= 3; i++)
+            assertFalse(file(NAME + "." + i + ".log").exists(), "part " + i + " was not deleted");
+        assertEquals("record number 4" + System.lineSeparator(), read(file(NAME + ".4.log")));
+        assertTrue(file(NAME + ".5.log").exists());
+        String[] left = directory.list();
+        assertEquals(2, left == null ? 0 : left.length);
+    }
+
+    @Test
+    void ignoresRecordsAfterClose() throws IOException {
+        sink = new LogSink(directory, NAME);
+        sink.setFormat("%3$s%n");
+        sink.publish(record(Level.INFO, "before", 0));
+        sink.close();
+        sink.publish(record(Level.INFO, "after", 0));
+        sink.flush();
+        sink.close();
+        assertEquals("before" + System.lineSeparator(), read(file(NAME + ".log")));
+    }
+}
@@ -0,0 +1,194 @@
+package bguspl.set.ex;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SetTest {
+
+    @Test
+    void addsSlotsInOrder() {
+        Set set = new Set(2);
+        assertEquals(2, set.getId());
+        assertEquals(3, set.getCapacity());
+        assertEquals(0, set.getSize());
+
+        assertTrue(set.addCard(7));
+        assertTrue(set.addCard(0));
+        assertEquals(2, set.getSize());
+        assertArrayEquals(new int[]{7, 0}, set.slots());
+        assertEquals(7, set.getSlot(0));
+        assertEquals(0, set.getSlot(1));
+        assertTrue(set.contains(0));
+        assertFalse(set.contains(1));
+    }
+
+    @Test
+    void rejectsAddsToAFullSet() {
+        Set set = new Set(0);
+        assertTrue(set.addCard(1));
+        assertTrue(set.addCard(2));
+        assertTrue(set.addCard(3));
+        assertFalse(set.addCard(4));
+        assertEquals(3, set.getSize());
+        assertArrayEquals(new int[]{1, 2, 3}, set.slots());
+    }
+
+    @Test
+    void removesFromAnyPosition() {
+        for (int removed = 1; removed <= 3; removed++) {
+            Set set = new Set(0);
+            set.addCard(1);
+            set.addCard(2);
+            set.addCard(3);
+            assertTrue(set.removeCardfromSlot(removed));
+            assertEquals(2, set.getSize());
+            assertFalse(set.contains(removed));
+            int[] expected = new int[2];
+            for (int slot = 1, i = 0; slot <= 3; slot++)
+                if (slot != removed)
+                    expected[i++] = slot;
+            assertArrayEquals(expected, set.slots());
+        }
+    }
+
+    @Test
+    void ignoresRemovalsOfMissingSlots() {
+        Set set = new Set(0);
+        assertFalse(set.removeCardfromSlot(0));
+        set.addCard(5);
+        assertFalse(set.removeCardfromSlot(6));
+        assertArrayEquals(new int[]{5}, set.slots());
+    }
+
+    @Test
+    void keepsDuplicateSlotsAsSeparateEntries() {
+        // the set does not check for duplicates, the player removes a token before placing it again
+        Set set = new Set(0);
+        assertTrue(set.addCard(4));
+        assertTrue(set.addCard(4));
+        assertEquals(2, set.getSize());
+        assertTrue(set.removeCardfromSlot(4));
+        assertArrayEquals(new int[]{4}, set.slots());
+        assertTrue(set.removeCardfromSlot(4));
+        assertEquals(0, set.getSize());
+    }
+
+    @Test
+    void returnsMinusOneOutOfTheSet() {
+        Set set = new Set(0);
+        set.addCard(9);
+        assertEquals(-1, set.getSlot(-1));
+        assertEquals(-1, set.getSlot(1));
+        assertEquals(-1, set.getSlot(3));
+    }
+
+    @Test
+    void clearsAndDecodesSnapshots() {
+        Set set = new Set(0);
+        set.addCard(1);
+        set.addCard(2);
+        long snapshot = set.snapshot();
+        set.clear();
+        assertEquals(0, set.getSize());
+        assertEquals(0, set.slots().length);
+        assertArrayEquals(new int[]{1, 2}, set.slots(snapshot));
+    }
+
+    @Test
+    void acceptsOnlySlotsThatFitInTheirField() {
+        Set set = new Set(0, 3, 256); // 8 bits a slot
+        assertFalse(set.addCard(-1));
+        assertFalse(set.addCard(256));
+        assertTrue(set.addCard(255));
+        assertTrue(set.addCard(0));
+        assertArrayEquals(new int[]{255, 0}, set.slots());
+
+        Set small = new Set(0, 3, 2); // 1 bit a slot
+        assertTrue(small.addCard(1));
+        assertFalse(small.addCard(2));
+    }
+
+    @Test
+    void rejectsSetsThatDoNotFitInALong() {
+        assertThrows(IllegalArgumentException.class, () -> new Set(0, 0, 12));
+        assertThrows(IllegalArgumentException.class, () -> new Set(0, 16, 2)); // more than the size field counts
+        assertThrows(IllegalArgumentException.class, () -> new Set(0, 8, 256)); // 4 + 8 * 8 bits
+        assertThrows(IllegalArgumentException.class, () -> new Set(0, 15, 17)); // 4 + 15 * 5 bits
+        new Set(0, 7, 256); // 4 + 7 * 8 bits
+    }
+
+    @Test
+    void usesEveryBitOfTheWord() {
+        Set set = new Set(0, 15, 16); // 4 + 15 * 4 bits
+        for (int slot = 15; slot >= 1; slot--)
+            assertTrue(set.addCard(slot));
+        assertFalse(set.addCard(0));
+        assertEquals(1, set.getSlot(14));
+
+        assertTrue(set.removeCardfromSlot(1)); // the field in the top bits
+        assertEquals(14, set.getSize());
+        assertTrue(set.removeCardfromSlot(15)); // the field in the low bits
+        int[] expected = new int[13];
+        for (int i = 0; i < expected.length; i++)
+            expected[i] = 14 - i;
+        assertArrayEquals(expected, set.slots());
+    }
+
+    @Test
+    void staysConsistentUnderConcurrentAddsAndRemoves() throws InterruptedException {
+        int threads = 6;
+        int rounds = 20_000;
+        Set set = new Set(0, 3, 12);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicReference<String> failure = new AtomicReference<>();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int slot = t;
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < rounds && failure.get() == null; i++) {
+                    if (set.addCard(slot)) {
+                        if (!set.contains(slot))
+                            failure.compareAndSet(null, "slot " + slot + " was lost after it was added");
+                        if (!set.removeCardfromSlot(slot))
+                            failure.compareAndSet(null, "slot " + slot + " was removed by another thread");
+                    }
+                    int[] slots = set.slots();
+                    boolean[] seen = new boolean[threads];
+                    for (int s : slots) {
+                        if (s < 0 || s >= threads || seen[s])
+                            failure.compareAndSet(null, "torn snapshot " + Arrays.toString(slots));
+                        else
+                            seen[s] = true;
+                    }
+                    if (slots.length > set.getCapacity())
+                        failure.compareAndSet(null, "size " + slots.length + " is over the capacity");
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        start.countDown();
+        for (Thread worker : workers)
+            worker.join();
+
+        assertNull(failure.get());
+        assertEquals(0, set.getSize());
+    }
+}